@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import com.gigaspaces.security.Authentication;
+import com.gigaspaces.security.directory.User;
+
+/**
+ * Measures {@link ActiveDirectorySpringSecurityManager#authenticate(com.gigaspaces.security.directory.UserDetails)}
+ * end to end against a stub {@link AuthenticationManager} which returns a fixed set of groups
+ * without any I/O, so the overhead of the security manager itself (credential digest, cache,
+ * coalescing, group mapping and metrics) is what is measured. Each thread cycles through its own
+ * set of users.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthenticateBenchmark {
+
+    private static final int USERS = 1024;
+
+    /** Authentication cache time-to-live; 0 disables the cache */
+    @Param({ "0", "60000" })
+    private long cacheTimeToLive;
+
+    private ActiveDirectorySpringSecurityManager manager;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put("Administrators", "GridPrivilege MANAGE_GRID,GridPrivilege MANAGE_PU,GridPrivilege PROVISION_PU,MonitorPrivilege MONITOR_JVM,MonitorPrivilege MONITOR_PU,SpacePrivilege WRITE,SpacePrivilege READ,SpacePrivilege TAKE,SpacePrivilege ALTER,SpacePrivilege EXECUTE");
+        groupMap.put("Deployers", "GridPrivilege MANAGE_PU,MonitorPrivilege MONITOR_JVM,MonitorPrivilege MONITOR_PU");
+        groupMap.put("Cache_Users", "MonitorPrivilege MONITOR_PU,SpacePrivilege WRITE,SpacePrivilege READ,SpacePrivilege TAKE,SpacePrivilege ALTER,SpacePrivilege EXECUTE");
+        groupMap.put("Cache_ReadOnly", "MonitorPrivilege MONITOR_PU,SpacePrivilege READ");
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        groupMapper.setGroupMap(groupMap);
+
+        manager = new ActiveDirectorySpringSecurityManager();
+        manager.setGroupMapper(groupMapper);
+        manager.setAuthenticationManager(new StubAuthenticationManager());
+        if (cacheTimeToLive > 0) {
+            manager.setAuthenticationCache(new AuthenticationCache(cacheTimeToLive, USERS * 16));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Users {
+
+        private final User[] users = new User[USERS];
+
+        private int next;
+
+        @Setup
+        public void setUp() {
+            String prefix = Thread.currentThread().getName() + "-user-";
+            for (int i = 0; i < users.length; i++) {
+                users[i] = new User(prefix + i, "password");
+            }
+        }
+
+        User next() {
+            return users[next++ & (USERS - 1)];
+        }
+    }
+
+    @Benchmark
+    public Authentication authenticate(Users users) {
+        return manager.authenticate(users.next());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Authentication authenticateContended(Users users) {
+        return manager.authenticate(users.next());
+    }
+
+    /**
+     * Authenticates every user as a member of Cache_Users and Deployers plus a few unmapped groups.
+     */
+    static class StubAuthenticationManager implements AuthenticationManager {
+
+        private final List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList("Cache_Users", "Deployers",
+                "Domain Users", "Remote Desktop Users");
+
+        public org.springframework.security.core.Authentication authenticate(org.springframework.security.core.Authentication authentication) {
+            return new UsernamePasswordAuthenticationToken(authentication.getPrincipal(), authentication.getCredentials(), authorities);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import com.gigaspaces.security.Authority;
+
+/**
+ * Measures mapping Active Directory group memberships to XAP authorities with
+ * {@link GroupMapperAuthorityFactory}, across group map sizes and the number of groups a user is a
+ * member of. Half of the memberships of each user are mapped, and users are rotated so that several
+ * distinct membership sets are resolved. The <code>patterns</code> benchmarks map the same number of
+ * groups with wildcard and DN rules instead of group names.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupMapperAuthorityFactoryBenchmark {
+
+    private static final String[] AUTHORITIES = { "SpacePrivilege READ", "SpacePrivilege WRITE", "SpacePrivilege TAKE",
+            "SpacePrivilege EXECUTE", "GridPrivilege MANAGE_PU", "GridPrivilege PROVISION_PU", "MonitorPrivilege MONITOR_PU",
+            "MonitorPrivilege MONITOR_JVM" };
+
+    private static final int USERS = 256;
+
+    @Param({ "10", "100", "1000" })
+    private int mapSize;
+
+    @Param({ "1", "10", "100" })
+    private int memberships;
+
+    private Map<String, String> groupMap;
+
+    private CompiledGroupMap compiledGroupMap;
+
+    private List<List<GrantedAuthority>> users;
+
+    private CompiledGroupMap compiledPatterns;
+
+    private List<List<GrantedAuthority>> patternUsers;
+
+    @Setup
+    public void setUp() {
+        groupMap = new LinkedHashMap<String, String>();
+        for (int i = 0; i < mapSize; i++) {
+            groupMap.put("Group_" + i, AUTHORITIES[i % AUTHORITIES.length] + "," + AUTHORITIES[(i + 3) % AUTHORITIES.length]);
+        }
+        compiledGroupMap = GroupMapperAuthorityFactory.compile(groupMap);
+
+        users = new ArrayList<List<GrantedAuthority>>(USERS);
+        for (int user = 0; user < USERS; user++) {
+            List<GrantedAuthority> grantedAuthorities = new ArrayList<GrantedAuthority>(memberships);
+            for (int i = 0; i < memberships; i++) {
+                String group = i % 2 == 0 ? "Group_" + ((user * 31 + i) % mapSize) : "Unmapped_" + i;
+                grantedAuthorities.add(new SimpleGrantedAuthority(group));
+            }
+            users.add(grantedAuthorities);
+        }
+
+        Map<String, String> patternMap = new LinkedHashMap<String, String>();
+        for (int i = 0; i < mapSize; i++) {
+            String rule = i % 2 == 0 ? "grp-" + i + "-*" : "dn:OU=Team_" + i + ",OU=Apps,DC=gigaspaces,DC=com";
+            patternMap.put(rule, AUTHORITIES[i % AUTHORITIES.length] + "," + AUTHORITIES[(i + 3) % AUTHORITIES.length]);
+        }
+        compiledPatterns = GroupMapperAuthorityFactory.compile(patternMap);
+
+        patternUsers = new ArrayList<List<GrantedAuthority>>(USERS);
+        for (int user = 0; user < USERS; user++) {
+            List<GrantedAuthority> grantedAuthorities = new ArrayList<GrantedAuthority>(memberships);
+            for (int i = 0; i < memberships; i++) {
+                int team = (user * 31 + i) % mapSize;
+                String group = i % 2 == 0 ? "grp-" + team + "-ro" : "Unmapped_" + i;
+                String ou = i % 2 == 0 ? "OU=Team_" + team : "OU=Other";
+                grantedAuthorities.add(new ActiveDirectoryGroupAuthority(group, "CN=" + group + "," + ou + ",OU=Apps,DC=gigaspaces,DC=com"));
+            }
+            patternUsers.add(grantedAuthorities);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class User {
+
+        private int next;
+
+        List<GrantedAuthority> next(GroupMapperAuthorityFactoryBenchmark benchmark) {
+            return benchmark.users.get(next++ & (USERS - 1));
+        }
+
+        List<GrantedAuthority> nextPatterns(GroupMapperAuthorityFactoryBenchmark benchmark) {
+            return benchmark.patternUsers.get(next++ & (USERS - 1));
+        }
+    }
+
+    @Benchmark
+    public Authority[] compiled(User user) {
+        return GroupMapperAuthorityFactory.create(user.next(this), compiledGroupMap);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Authority[] compiledContended(User user) {
+        return GroupMapperAuthorityFactory.create(user.next(this), compiledGroupMap);
+    }
+
+    @Benchmark
+    public Authority[] patterns(User user) {
+        return GroupMapperAuthorityFactory.create(user.nextPatterns(this), compiledPatterns);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Authority[] patternsContended(User user) {
+        return GroupMapperAuthorityFactory.create(user.nextPatterns(this), compiledPatterns);
+    }
+
+    /**
+     * Baseline: parses the group map on every call.
+     */
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public List<Authority> uncompiled(User user) {
+        return GroupMapperAuthorityFactory.create(user.next(this), groupMap);
+    }
+}
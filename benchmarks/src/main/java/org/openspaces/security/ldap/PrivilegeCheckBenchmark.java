@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import com.gigaspaces.security.authorities.GrantedAuthorities;
+import com.gigaspaces.security.authorities.GridAuthority.GridPrivilege;
+import com.gigaspaces.security.authorities.MonitorAuthority.MonitorPrivilege;
+import com.gigaspaces.security.authorities.Privilege;
+import com.gigaspaces.security.authorities.SpaceAuthority.SpacePrivilege;
+import com.gigaspaces.security.authorities.SystemAuthority.SystemPrivilege;
+
+/**
+ * Measures the privilege check XAP performs on every operation, for a user mapped to a broad
+ * Administrators entry: walking the authorities with {@link GrantedAuthorities} versus the
+ * precomputed {@link PrivilegeGrantedAuthorities}. The checked privileges rotate over granted
+ * privileges and privileges which are not granted, the latter walking all authorities.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrivilegeCheckBenchmark {
+
+    private static final String[] ADMINISTRATOR_AUTHORITIES = { "SpacePrivilege READ", "SpacePrivilege WRITE", "SpacePrivilege TAKE",
+            "SpacePrivilege ALTER", "SpacePrivilege EXECUTE", "GridPrivilege MANAGE_GRID", "GridPrivilege MANAGE_PU",
+            "GridPrivilege PROVISION_PU", "MonitorPrivilege MONITOR_JVM", "MonitorPrivilege MONITOR_PU" };
+
+    private static final Privilege[] CHECKED = { SpacePrivilege.READ, SpacePrivilege.WRITE, SpacePrivilege.TAKE, SpacePrivilege.EXECUTE,
+            MonitorPrivilege.MONITOR_PU, GridPrivilege.MANAGE_PU, SystemPrivilege.MANAGE_ROLES, SystemPrivilege.MANAGE_ROLES };
+
+    /** The number of Administrators authorities granted */
+    @Param({ "1", "5", "10" })
+    private int authorities;
+
+    private GrantedAuthorities walked;
+
+    private PrivilegeGrantedAuthorities precomputed;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        StringBuilder administrators = new StringBuilder();
+        for (int i = 0; i < authorities; i++) {
+            administrators.append(i > 0 ? "," : "").append(ADMINISTRATOR_AUTHORITIES[i]);
+        }
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("Administrators", administrators.toString());
+        CompiledGroupMap compiledGroupMap = GroupMapperAuthorityFactory.compile(groupMap);
+
+        precomputed = compiledGroupMap.resolveGrantedAuthorities(Arrays.asList(new SimpleGrantedAuthority("Administrators")), null);
+        walked = new GrantedAuthorities(precomputed.getAuthorities());
+    }
+
+    private Privilege nextPrivilege() {
+        return CHECKED[next++ & (CHECKED.length - 1)];
+    }
+
+    /**
+     * Baseline: the authorities are walked on every check.
+     */
+    @Benchmark
+    public boolean walked() {
+        return walked.isGranted(nextPrivilege());
+    }
+
+    @Benchmark
+    public boolean precomputed() {
+        return precomputed.isGranted(nextPrivilege());
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSimpleBindRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SimpleBindRequest;
+
+/**
+ * An embedded LDAP server standing in for an Active Directory domain controller: users bind with
+ * their <code>userPrincipalName</code> and carry <code>memberOf</code> attributes. Bind latency can be
+ * injected to simulate a slow domain controller. Used by the manager's tests and by the test
+ * utility's embedded load generator.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class InMemoryActiveDirectory {
+
+    private final String domain;
+    private final String baseDn;
+    private final InMemoryDirectoryServer server;
+    private final Map<String, String> principals = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger binds = new AtomicInteger();
+    private volatile long bindDelayMillis;
+
+    public InMemoryActiveDirectory(String domain) throws LDAPException {
+        this.domain = domain;
+        this.baseDn = "dc=" + domain.replace(".", ",dc=");
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(baseDn);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", 0));
+        config.setSchema(null);
+        config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+            @Override
+            public void processSimpleBindRequest(InMemoryInterceptedSimpleBindRequest request) throws LDAPException {
+                binds.incrementAndGet();
+                sleep(bindDelayMillis);
+                SimpleBindRequest bindRequest = request.getRequest();
+                String dn = principals.get(bindRequest.getBindDN().toLowerCase());
+                if (dn != null) {
+                    request.setRequest(new SimpleBindRequest(dn, bindRequest.getPassword().getValue()));
+                } else if (bindRequest.getBindDN().indexOf('@') >= 0) {
+                    // as Active Directory, reject unknown user principal names as invalid credentials
+                    throw new LDAPException(ResultCode.INVALID_CREDENTIALS);
+                }
+            }
+        });
+        this.server = new InMemoryDirectoryServer(config);
+        server.add(new Entry(baseDn, new com.unboundid.ldap.sdk.Attribute("objectClass", "domain")));
+        server.add(new Entry("ou=Users," + baseDn, new com.unboundid.ldap.sdk.Attribute("objectClass", "organizationalUnit")));
+        server.add(new Entry("ou=Groups," + baseDn, new com.unboundid.ldap.sdk.Attribute("objectClass", "organizationalUnit")));
+    }
+
+    public InMemoryActiveDirectory start() throws LDAPException {
+        server.startListening();
+        return this;
+    }
+
+    public void shutdown() {
+        server.shutDown(true);
+    }
+
+    public String getUrl() {
+        return "ldap://localhost:" + server.getListenPort();
+    }
+
+    public String getBaseDn() {
+        return baseDn;
+    }
+
+    public InMemoryDirectoryServer getServer() {
+        return server;
+    }
+
+    public String groupDn(String group) {
+        return "cn=" + group + ",ou=Groups," + baseDn;
+    }
+
+    /**
+     * Adds a group, optionally nested in other groups.
+     */
+    public void addGroup(String group, String... parentGroups) throws LDAPException {
+        if (server.getEntry(groupDn(group)) == null) {
+            server.add(new Entry(groupDn(group),
+                    new com.unboundid.ldap.sdk.Attribute("objectClass", "group"),
+                    new com.unboundid.ldap.sdk.Attribute("cn", group)));
+        }
+        for (String parentGroup : parentGroups) {
+            addGroup(parentGroup);
+            addMembership(groupDn(group), parentGroup);
+        }
+    }
+
+    /**
+     * Adds a user with direct membership of the given groups, creating missing groups.
+     */
+    public void addUser(String username, String password, String... groups) throws LDAPException {
+        String dn = "cn=" + username + ",ou=Users," + baseDn;
+        String principal = username + "@" + domain;
+        server.add(new Entry(dn,
+                new com.unboundid.ldap.sdk.Attribute("objectClass", "user"),
+                new com.unboundid.ldap.sdk.Attribute("cn", username),
+                new com.unboundid.ldap.sdk.Attribute("userPrincipalName", principal),
+                new com.unboundid.ldap.sdk.Attribute("userPassword", password)));
+        principals.put(principal.toLowerCase(), dn);
+        for (String group : groups) {
+            addGroup(group);
+            addMembership(dn, group);
+        }
+    }
+
+    private void addMembership(String memberDn, String group) throws LDAPException {
+        server.modify(memberDn, new Modification(ModificationType.ADD, "memberOf", groupDn(group)));
+        server.modify(groupDn(group), new Modification(ModificationType.ADD, "member", memberDn));
+    }
+
+    public void setBindDelay(long bindDelayMillis) {
+        this.bindDelayMillis = bindDelayMillis;
+    }
+
+    public int getBindCount() {
+        return binds.get();
+    }
+
+    private static void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authentication;
+import com.gigaspaces.security.authorities.GrantedAuthorities;
+import com.gigaspaces.security.directory.UserDetails;
+
+/**
+ * An {@link Authentication} carrying the {@link PrivilegeGrantedAuthorities} resolved for the
+ * user, so the privilege checks XAP performs on every operation are constant-time. Serialized as a
+ * plain {@link Authentication} of the user details.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+class ActiveDirectoryAuthentication extends Authentication {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient PrivilegeGrantedAuthorities grantedAuthorities;
+
+    ActiveDirectoryAuthentication(UserDetails userDetails, PrivilegeGrantedAuthorities grantedAuthorities) {
+        super(userDetails);
+        this.grantedAuthorities = grantedAuthorities;
+    }
+
+    @Override
+    public GrantedAuthorities getGrantedAuthorities() {
+        return grantedAuthorities;
+    }
+
+    private Object writeReplace() {
+        return new Authentication(getUserDetails());
+    }
+}
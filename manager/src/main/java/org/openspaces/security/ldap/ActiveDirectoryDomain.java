@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+
+/**
+ * One of several Active Directory domains (or forests) {@link ActiveDirectorySpringSecurityManager}
+ * routes authentications to. When the Spring security configuration defines
+ * <code>ActiveDirectoryDomain</code> beans, each domain authenticates with its own provider and
+ * maps groups with its own group mapper and group hierarchy:
+ * <code>
+ * <pre>
+ * &lt;bean id="salesDomain" class="org.openspaces.security.ldap.ActiveDirectoryDomain"&gt;
+ *     &lt;constructor-arg value="sales.gigaspaces.com" /&gt;
+ *     &lt;property name="netbiosName" value="SALES" /&gt;
+ *     &lt;property name="authenticationProvider" ref="salesProvider" /&gt;
+ *     &lt;property name="groupMapper" ref="salesGroupMapper" /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * </code>
+ * A username with a UPN suffix (<code>user@sales.gigaspaces.com</code>) or NetBIOS prefix
+ * (<code>SALES&#92;user</code>) is routed to its domain only; other usernames are tried against all
+ * domains in parallel. A domain whose provider fails with anything but a credentials or group
+ * mapping failure is skipped by parallel attempts for a backoff period which doubles with each
+ * consecutive failure, so that an unreachable forest does not delay logins to the others.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class ActiveDirectoryDomain implements InitializingBean {
+
+    private final String name;
+    private String netbiosName;
+    private List<String> upnSuffixes = Collections.emptyList();
+    private AuthenticationManager authenticationManager;
+    private ActiveDirectoryGroupMapper groupMapper;
+    private ActiveDirectoryGroupHierarchy groupHierarchy;
+    private final EndpointHealth health = new EndpointHealth(1000, 60000);
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param name the DNS name of the domain, e.g. <code>sales.gigaspaces.com</code>; also its
+     *            default UPN suffix
+     */
+    public ActiveDirectoryDomain(String name) {
+        if (name == null || name.trim().length() == 0) {
+            throw new IllegalArgumentException("domain name must be set");
+        }
+        this.name = name.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    public void afterPropertiesSet() {
+        if (authenticationManager == null) {
+            throw new IllegalArgumentException("authenticationProvider or authenticationManager of domain [" + name + "] must be set");
+        }
+    }
+
+    /**
+     * Records a response of the domain, successful or not, making it available again.
+     */
+    void recordResponse(long elapsedNanos, boolean authenticated) {
+        (authenticated ? successes : rejections).incrementAndGet();
+        health.recordResponse(elapsedNanos);
+    }
+
+    /**
+     * Marks the domain as unavailable for a backoff period.
+     */
+    void recordFailure() {
+        failures.incrementAndGet();
+        health.recordFailure();
+    }
+
+    boolean isAvailable(long nowNanos) {
+        return health.isAvailable(nowNanos);
+    }
+
+    long getLatencyNanos() {
+        return health.getLatencyNanos();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getNetbiosName() {
+        return netbiosName;
+    }
+
+    /**
+     * @param netbiosName the NetBIOS name, routing usernames like <code>SALES&#92;user</code> to this
+     *            domain, matched case-insensitively
+     */
+    public void setNetbiosName(String netbiosName) {
+        this.netbiosName = netbiosName == null ? null : netbiosName.trim();
+    }
+
+    /**
+     * @return the UPN suffixes routed to this domain, including its name
+     */
+    public List<String> getUpnSuffixes() {
+        List<String> suffixes = new ArrayList<String>(upnSuffixes.size() + 1);
+        suffixes.add(name);
+        for (String suffix : upnSuffixes) {
+            if (!suffixes.contains(suffix)) {
+                suffixes.add(suffix);
+            }
+        }
+        return suffixes;
+    }
+
+    /**
+     * @param upnSuffixes alternative UPN suffixes of the forest, routed to this domain in addition
+     *            to its name
+     */
+    public void setUpnSuffixes(List<String> upnSuffixes) {
+        List<String> suffixes = new ArrayList<String>(upnSuffixes.size());
+        for (String suffix : upnSuffixes) {
+            suffixes.add(suffix.trim().toLowerCase(Locale.ENGLISH));
+        }
+        this.upnSuffixes = suffixes;
+    }
+
+    public AuthenticationManager getAuthenticationManager() {
+        return authenticationManager;
+    }
+
+    public void setAuthenticationManager(AuthenticationManager authenticationManager) {
+        this.authenticationManager = authenticationManager;
+    }
+
+    /**
+     * @param authenticationProvider the provider authenticating against this domain, e.g. a
+     *            {@link PooledActiveDirectoryLdapAuthenticationProvider}
+     */
+    public void setAuthenticationProvider(AuthenticationProvider authenticationProvider) {
+        this.authenticationManager = new ProviderManager(Collections.singletonList(authenticationProvider));
+    }
+
+    /**
+     * @return the group mapper, or <code>null</code> to use the only group mapper bean of the
+     *         configuration
+     */
+    public ActiveDirectoryGroupMapper getGroupMapper() {
+        return groupMapper;
+    }
+
+    public void setGroupMapper(ActiveDirectoryGroupMapper groupMapper) {
+        this.groupMapper = groupMapper;
+    }
+
+    public ActiveDirectoryGroupHierarchy getGroupHierarchy() {
+        return groupHierarchy;
+    }
+
+    /**
+     * @param groupHierarchy nested group resolution of this domain; started by the security manager
+     */
+    public void setGroupHierarchy(ActiveDirectoryGroupHierarchy groupHierarchy) {
+        this.groupHierarchy = groupHierarchy;
+    }
+
+    /**
+     * @param initialRetryBackoff the time in milliseconds a failed domain is skipped by parallel
+     *            attempts after its first consecutive failure
+     */
+    public void setInitialRetryBackoff(long initialRetryBackoff) {
+        health.setInitialBackoffMillis(initialRetryBackoff);
+    }
+
+    /**
+     * @param maxRetryBackoff the maximum time in milliseconds a failed domain is skipped
+     */
+    public void setMaxRetryBackoff(long maxRetryBackoff) {
+        health.setMaxBackoffMillis(maxRetryBackoff);
+    }
+
+    /**
+     * @return the number of successful authentications
+     */
+    public long getSuccessCount() {
+        return successes.get();
+    }
+
+    /**
+     * @return the number of authentications the domain rejected, e.g. for bad credentials
+     */
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    /**
+     * @return the number of authentications which failed for other reasons, e.g. an unreachable
+     *         domain controller
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return the moving average of the domain's response time in milliseconds
+     */
+    public double getLatencyMillis() {
+        return health.getLatencyNanos() / 1000000.0;
+    }
+
+    /**
+     * @return whether the domain is currently tried by parallel attempts
+     */
+    public boolean isAvailable() {
+        return isAvailable(System.nanoTime());
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
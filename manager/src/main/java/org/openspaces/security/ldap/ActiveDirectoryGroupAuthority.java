@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * A group the user is a member of, as granted by {@link PooledActiveDirectoryLdapAuthenticationProvider}:
+ * the group's common name, like Spring's Active Directory provider grants, together with its
+ * distinguished name, which the <code>dn:</code> rules of {@link ActiveDirectoryGroupMapper} match.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public final class ActiveDirectoryGroupAuthority implements GrantedAuthority {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String commonName;
+    private final String dn;
+
+    public ActiveDirectoryGroupAuthority(String commonName, String dn) {
+        if (commonName == null || dn == null) {
+            throw new IllegalArgumentException("common name and dn must be set");
+        }
+        this.commonName = commonName;
+        this.dn = dn;
+    }
+
+    /**
+     * @return the group's common name
+     */
+    public String getAuthority() {
+        return commonName;
+    }
+
+    public String getDn() {
+        return dn;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ActiveDirectoryGroupAuthority)) {
+            return false;
+        }
+        ActiveDirectoryGroupAuthority other = (ActiveDirectoryGroupAuthority) obj;
+        return commonName.equals(other.commonName) && dn.equals(other.dn);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * commonName.hashCode() + dn.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return commonName;
+    }
+}
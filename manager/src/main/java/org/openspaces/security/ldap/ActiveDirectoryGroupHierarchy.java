@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import com.gigaspaces.security.SecurityManager;
+
+/**
+ * Resolves nested Active Directory group membership from an in-memory copy of the group hierarchy,
+ * so that a user who is a member of a group nested (at any depth) in a mapped group is granted that
+ * group's authorities without additional LDAP searches at login:
+ * <code>
+ * <pre>
+ * &lt;bean id="groupHierarchy" class="org.openspaces.security.ldap.ActiveDirectoryGroupHierarchy"&gt;
+ *     &lt;constructor-arg value="gigaspaces.com" /&gt;
+ *     &lt;constructor-arg value="ldaps://dc1.gigaspaces.com" /&gt;
+ *     &lt;property name="principal" value="xap-reader@gigaspaces.com" /&gt;
+ *     &lt;property name="password" value="..." /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * </code>
+ * The hierarchy is loaded when the security manager starts and refreshed periodically. Refreshes
+ * only fetch groups whose <code>uSNChanged</code> is above the highest value seen so far, and
+ * re-read the nested groups of those; every {@link #setFullRefreshInterval(int) fullRefreshInterval}
+ * refreshes the whole hierarchy is re-loaded to pick up deleted groups. Update sequence numbers are
+ * local to a domain controller, so a single URL is used.
+ * <p>
+ * Groups are identified by their common name, like the keys of {@link ActiveDirectoryGroupMapper}.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class ActiveDirectoryGroupHierarchy implements DisposableBean {
+
+    private static final Logger logger = Logger.getLogger(SecurityManager.class.getPackage().getName());
+
+    private static final String GROUP_FILTER = "(objectClass=group)";
+    private static final String CHANGED_GROUP_FILTER = "(&(objectClass=group)(uSNChanged>={0}))";
+    private static final String NESTED_GROUP_FILTER = "(&(objectClass=group)(memberOf={0}))";
+    private static final String[] GROUP_ATTRIBUTES = { "cn", "memberOf", "uSNChanged" };
+
+    private final String url;
+    private String rootDn;
+    private String principal;
+    private String password;
+    private long refreshInterval = 300000;
+    private int fullRefreshInterval = 12;
+    private int pageSize = 500;
+    private long connectTimeout = 5000;
+    private long readTimeout = 30000;
+
+    // guarded by this
+    private Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+    private Set<String> mappedGroups = Collections.emptySet();
+    private CompiledGroupMap groupMap;
+    private long highestUsn = -1;
+    private int refreshes;
+    private ScheduledExecutorService scheduler;
+
+    private volatile GroupHierarchy hierarchy = GroupHierarchy.EMPTY;
+
+    /**
+     * @param domain the Active Directory domain, used to derive the search base
+     * @param url the LDAP URL of the domain controller to read the hierarchy from
+     */
+    public ActiveDirectoryGroupHierarchy(String domain, String url) {
+        this.url = url.trim();
+        this.rootDn = LdapUtils.rootDnFromDomain(domain.trim().toLowerCase());
+    }
+
+    /**
+     * Loads the hierarchy and schedules periodic refreshes. A failed load is logged and retried on
+     * the next refresh; until then only direct membership is resolved.
+     * 
+     * @param mappedGroups the groups to compute nested membership for
+     */
+    public synchronized void start(Set<String> mappedGroups) {
+        start(mappedGroups, null);
+    }
+
+    /**
+     * Same as {@link #start(Set)} for the groups of the group map, also computing nested membership
+     * for every group in the directory whose name matches one of its wildcard or regular expression
+     * rules. Its DN rules match direct membership only, since the hierarchy is kept by common name.
+     */
+    public synchronized void start(CompiledGroupMap groupMap) {
+        start(groupMap.getGroups(), groupMap);
+    }
+
+    private void start(Set<String> mappedGroups, CompiledGroupMap groupMap) {
+        this.mappedGroups = new HashSet<String>(mappedGroups);
+        this.groupMap = groupMap;
+        refresh();
+        if (scheduler == null && refreshInterval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ActiveDirectoryGroupHierarchy-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    refresh();
+                }
+            }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Changes the groups to compute nested membership for, without reloading from the directory.
+     */
+    public synchronized void setMappedGroups(Set<String> mappedGroups) {
+        this.mappedGroups = new HashSet<String>(mappedGroups);
+        this.groupMap = null;
+        hierarchy = GroupHierarchy.build(parents, this.mappedGroups);
+    }
+
+    /**
+     * Fetches changes from the directory (or everything, on the first and every
+     * {@link #setFullRefreshInterval(int) fullRefreshInterval} call) and publishes a new
+     * {@link GroupHierarchy}.
+     */
+    public synchronized void refresh() {
+        long start = System.currentTimeMillis();
+        boolean full = highestUsn < 0 || fullRefreshInterval <= 1 || refreshes % fullRefreshInterval == 0;
+        try {
+            LdapContext context = new InitialLdapContext(LdapUtils.environment(url, principal == null ? "none" : "simple", principal, password,
+                    connectTimeout, readTimeout), null);
+            try {
+                if (full) {
+                    loadAll(context);
+                } else {
+                    loadChanges(context);
+                }
+            } finally {
+                context.close();
+            }
+            refreshes++;
+            hierarchy = GroupHierarchy.build(parents, matchMappedGroups());
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine((full ? "loaded" : "refreshed") + " group hierarchy of " + parents.size() + " groups from " + url + " in "
+                        + (System.currentTimeMillis() - start) + "ms; " + hierarchy.size() + " groups are nested in mapped groups");
+            }
+        } catch (Exception e) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Failed to " + (full ? "load" : "refresh") + " group hierarchy from " + url, e);
+            }
+        }
+    }
+
+    /**
+     * @return the mapped groups, plus the parent groups matching a pattern rule of the group map
+     */
+    private Set<String> matchMappedGroups() {
+        if (groupMap == null || !groupMap.hasPatterns()) {
+            return mappedGroups;
+        }
+        Set<String> matched = new HashSet<String>(mappedGroups);
+        for (Set<String> groupParents : parents.values()) {
+            for (String parent : groupParents) {
+                if (!matched.contains(parent) && groupMap.isMapped(parent)) {
+                    matched.add(parent);
+                }
+            }
+        }
+        return matched;
+    }
+
+    private void loadAll(LdapContext context) throws NamingException, IOException {
+        final Map<String, Set<String>> loaded = new HashMap<String, Set<String>>();
+        final long[] usn = { 0 };
+        search(context, GROUP_FILTER, new Object[0], GROUP_ATTRIBUTES, new SearchResultHandler() {
+            public void handle(SearchResult result) throws NamingException {
+                Attributes attributes = result.getAttributes();
+                loaded.put(commonName(result), commonNames(attributes.get("memberOf")));
+                usn[0] = Math.max(usn[0], usn(attributes));
+            }
+        });
+        parents = loaded;
+        highestUsn = usn[0];
+    }
+
+    /**
+     * A change of a group's members changes the uSNChanged of that group (not of its members), so for
+     * each changed group both its own parents and its nested groups are re-read.
+     */
+    private void loadChanges(final LdapContext context) throws NamingException, IOException {
+        final Map<String, String> changed = new HashMap<String, String>();
+        final long[] usn = { highestUsn };
+        search(context, CHANGED_GROUP_FILTER, new Object[] { String.valueOf(highestUsn + 1) }, GROUP_ATTRIBUTES, new SearchResultHandler() {
+            public void handle(SearchResult result) throws NamingException {
+                Attributes attributes = result.getAttributes();
+                String group = commonName(result);
+                parents.put(group, commonNames(attributes.get("memberOf")));
+                changed.put(group, result.getNameInNamespace());
+                usn[0] = Math.max(usn[0], usn(attributes));
+            }
+        });
+        for (final Map.Entry<String, String> group : changed.entrySet()) {
+            for (Set<String> groupParents : parents.values()) {
+                groupParents.remove(group.getKey());
+            }
+            search(context, NESTED_GROUP_FILTER, new Object[] { group.getValue() }, new String[] { "cn" }, new SearchResultHandler() {
+                public void handle(SearchResult result) throws NamingException {
+                    String nested = commonName(result);
+                    Set<String> nestedParents = parents.get(nested);
+                    if (nestedParents == null) {
+                        nestedParents = new HashSet<String>();
+                        parents.put(nested, nestedParents);
+                    }
+                    nestedParents.add(group.getKey());
+                }
+            });
+        }
+        highestUsn = usn[0];
+    }
+
+    private void search(LdapContext context, String filter, Object[] filterArguments, String[] attributes, SearchResultHandler handler)
+            throws NamingException, IOException {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(attributes);
+        byte[] cookie = null;
+        do {
+            context.setRequestControls(new Control[] { new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL) });
+            NamingEnumeration<SearchResult> results = context.search(rootDn, filter, filterArguments, controls);
+            try {
+                SearchResult result;
+                while ((result = LdapUtils.next(results)) != null) {
+                    handler.handle(result);
+                }
+            } finally {
+                results.close();
+            }
+            cookie = null;
+            Control[] responseControls = context.getResponseControls();
+            if (responseControls != null) {
+                for (Control control : responseControls) {
+                    if (control instanceof PagedResultsResponseControl) {
+                        cookie = ((PagedResultsResponseControl) control).getCookie();
+                    }
+                }
+            }
+        } while (cookie != null && cookie.length > 0);
+    }
+
+    private static String commonName(SearchResult result) throws NamingException {
+        Attribute cn = result.getAttributes().get("cn");
+        return cn != null ? cn.get().toString() : LdapUtils.commonName(result.getNameInNamespace());
+    }
+
+    private static Set<String> commonNames(Attribute memberOf) throws NamingException {
+        Set<String> names = new HashSet<String>();
+        if (memberOf != null) {
+            NamingEnumeration<?> values = memberOf.getAll();
+            try {
+                while (values.hasMore()) {
+                    names.add(LdapUtils.commonName(values.next().toString()));
+                }
+            } finally {
+                values.close();
+            }
+        }
+        return names;
+    }
+
+    private static long usn(Attributes attributes) throws NamingException {
+        Attribute usn = attributes.get("uSNChanged");
+        if (usn == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(usn.get().toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the current snapshot of the hierarchy
+     */
+    public GroupHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    public synchronized void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @param rootDn the base DN of the group search; derived from the domain by default
+     */
+    public void setRootDn(String rootDn) {
+        this.rootDn = rootDn;
+    }
+
+    /**
+     * @param principal the account to read the hierarchy with; anonymous if not set
+     */
+    public void setPrincipal(String principal) {
+        this.principal = principal;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * @param refreshInterval milliseconds between refreshes; <code>0</code> loads the hierarchy only once
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @param fullRefreshInterval every how many refreshes the whole hierarchy is re-loaded
+     */
+    public void setFullRefreshInterval(int fullRefreshInterval) {
+        this.fullRefreshInterval = fullRefreshInterval;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(long readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    private interface SearchResultHandler {
+        void handle(SearchResult result) throws NamingException;
+    }
+}
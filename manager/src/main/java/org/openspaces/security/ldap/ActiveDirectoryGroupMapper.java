@@ -31,6 +31,12 @@ public class ActiveDirectoryGroupMapper {
    
    private Map  groupMap;
    
+   /**
+    * @param groupMap group name to comma separated authorities. Keys may also be pattern rules:
+    *            wildcards (<code>grp-xap-*-ro</code>), regular expressions
+    *            (<code>regex:xap-(dev|qa)-.*</code>) or DN suffixes
+    *            (<code>dn:OU=Cache,OU=Apps,DC=gigaspaces,DC=com</code>), matched case-insensitively
+    */
    public void setGroupMap(Map groupMap) {
       this.groupMap = groupMap;
    }
@@ -19,20 +19,48 @@
 package org.openspaces.security.ldap;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ProviderManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 import com.gigaspaces.security.AccessDeniedException;
 import com.gigaspaces.security.Authentication;
@@ -68,56 +96,663 @@ public class ActiveDirectorySpringSecurityManager implements SecurityManager {
     /** The security-config xml file location to create a new {@link FileSystemXmlApplicationContext} from */ 
     public static final String SPRING_SECURITY_CONFIG_LOCATION = "spring-security-config-location";
 
+    /** Time-to-live in milliseconds of cached successful authentications; <code>0</code> (the default) disables caching */
+    public static final String AUTHENTICATION_CACHE_TTL = "authentication-cache-ttl";
+
+    /** The maximum number of cached authentications, least recently used are evicted first */
+    public static final String AUTHENTICATION_CACHE_MAX_SIZE = "authentication-cache-max-size";
+
+    /**
+     * Time in milliseconds a cached authentication is still served after its time-to-live while it is
+     * refreshed in the background; <code>0</code> (the default) never serves stale authentications
+     */
+    public static final String AUTHENTICATION_CACHE_MAX_STALENESS = "authentication-cache-max-staleness";
+
+    /**
+     * File the authentication cache is saved to on close and restored from on init, so recent logins
+     * are served right after a restart; not set by default
+     */
+    public static final String AUTHENTICATION_CACHE_SNAPSHOT = "authentication-cache-snapshot";
+
+    /**
+     * Time-to-live in milliseconds of remembered failed credentials, which are rejected without
+     * contacting Active Directory; <code>0</code> (the default) disables the failed authentication cache
+     */
+    public static final String FAILED_AUTHENTICATION_CACHE_TTL = "failed-authentication-cache-ttl";
+
+    /** The maximum number of remembered failed credentials */
+    public static final String FAILED_AUTHENTICATION_CACHE_MAX_SIZE = "failed-authentication-cache-max-size";
+
+    /**
+     * The number of failed authentications of a user within the failed authentication window after
+     * which the user is rejected without contacting Active Directory; <code>0</code> (the default)
+     * disables limiting
+     */
+    public static final String FAILED_AUTHENTICATION_LIMIT = "failed-authentication-limit";
+
+    /** The length in milliseconds of the sliding window failed authentications are limited over */
+    public static final String FAILED_AUTHENTICATION_WINDOW = "failed-authentication-window";
+
+    /**
+     * Whether to warm up in the background after init and after each reload (<code>false</code> by
+     * default), see {@link #warmUp()}
+     */
+    public static final String WARM_UP = "warm-up";
+
+    /**
+     * File every authentication is logged to, see {@link AuthenticationAuditLog}; not set by default,
+     * which disables the audit log
+     */
+    public static final String AUDIT_LOG = "audit-log";
+
+    /** The size in bytes after which the audit log is rolled over, 10MB by default */
+    public static final String AUDIT_LOG_MAX_FILE_SIZE = "audit-log-max-file-size";
+
+    /** The number of audit log files kept, including the current one, 10 by default */
+    public static final String AUDIT_LOG_MAX_FILES = "audit-log-max-files";
+
+    /**
+     * The number of authentication events which may wait to be written to the audit log, 8192 by
+     * default; further events are dropped
+     */
+    public static final String AUDIT_LOG_BUFFER_SIZE = "audit-log-buffer-size";
+
+    /**
+     * Interval in milliseconds at which the security-config xml file is checked for changes and
+     * reloaded; <code>0</code> (the default) disables reloading
+     */
+    public static final String SPRING_SECURITY_CONFIG_RELOAD_INTERVAL = "spring-security-config-reload-interval";
+
+    /**
+     * Time in milliseconds after which an authentication fails, including the time it waited for an
+     * authentication thread; <code>0</code> waits indefinitely. Defaults to 30 seconds.
+     */
+    public static final String AUTHENTICATION_TIMEOUT = "authentication-timeout";
+
+    /** The number of threads authenticating against Active Directory, 16 by default */
+    public static final String AUTHENTICATION_THREADS = "authentication-threads";
+
+    /**
+     * The number of authentications which may wait for an authentication thread, 256 by default;
+     * further authentications are rejected right away
+     */
+    public static final String AUTHENTICATION_QUEUE_SIZE = "authentication-queue-size";
+
+    private static final int DEFAULT_AUTHENTICATION_CACHE_MAX_SIZE = 1000;
+
+    private static final int DEFAULT_FAILED_AUTHENTICATION_CACHE_MAX_SIZE = 10000;
+
+    private static final long DEFAULT_FAILED_AUTHENTICATION_WINDOW = 60000;
+
+    private static final long DEFAULT_AUTHENTICATION_TIMEOUT = 30000;
+
+    private static final int DEFAULT_AUTHENTICATION_THREADS = 16;
+
+    private static final int DEFAULT_AUTHENTICATION_QUEUE_SIZE = 256;
+
+    private static final long DEFAULT_AUDIT_LOG_MAX_FILE_SIZE = 10 * 1024 * 1024;
+
+    private static final int DEFAULT_AUDIT_LOG_MAX_FILES = 10;
+
+    private static final int DEFAULT_AUDIT_LOG_BUFFER_SIZE = 8192;
+
+    /**
+     * Threads attempting parallel domain authentications, per authentication thread; attempts beyond
+     * that run on the authenticating thread
+     */
+    private static final int DOMAIN_THREADS_PER_AUTHENTICATION_THREAD = 4;
+
     private static final Logger logger = Logger.getLogger(SecurityManager.class.getPackage().getName());
 
-    @Autowired
-    private ApplicationContext applicationContext;
+    private volatile SecurityConfiguration configuration = new SecurityConfiguration(null, null, null, null);
 
-    @Autowired
-    private AuthenticationManager authenticationManager;
+    private String configLocation;
 
-    @Autowired
-    private ActiveDirectoryGroupMapper groupMapper;
+    private ScheduledExecutorService reloadScheduler;
+
+    private long configLastModified;
+
+    private final AtomicLong reloadCount = new AtomicLong();
+
+    private final AtomicLong failedReloadCount = new AtomicLong();
+
+    private volatile Exception lastReloadFailure;
+
+    private final CredentialDigester credentialDigester = new CredentialDigester();
+
+    private File authenticationCacheSnapshot;
+
+    private AuthenticationCache authenticationCache;
+
+    private FailedAuthenticationCache failedAuthenticationCache;
+
+    private FailedAttemptLimiter failedAttemptLimiter;
+
+    private final SingleFlight<CredentialKey, Authentication> inFlightAuthentications = new SingleFlight<CredentialKey, Authentication>();
+
+    private final AuthenticationMetrics metrics = new AuthenticationMetrics(inFlightAuthentications);
+
+    private ObjectName metricsObjectName;
+
+    private long authenticationTimeout = DEFAULT_AUTHENTICATION_TIMEOUT;
+
+    private int authenticationThreads = DEFAULT_AUTHENTICATION_THREADS;
+
+    private int authenticationQueueSize = DEFAULT_AUTHENTICATION_QUEUE_SIZE;
+
+    private volatile ThreadPoolExecutor authenticationExecutor;
+
+    private volatile ThreadPoolExecutor domainExecutor;
+
+    private boolean warmUp;
+
+    private AuthenticationAuditLog auditLog;
 	
 	
 	/**
 	 * Initialize the security manager using the spring security configuration.
 	 */
 	public void init(Properties properties) throws SecurityException {
-		String configLocation = properties.getProperty(SPRING_SECURITY_CONFIG_LOCATION, "security-config.xml");
+		configLocation = properties.getProperty(SPRING_SECURITY_CONFIG_LOCATION, "security-config.xml");
 		if (logger.isLoggable(Level.CONFIG)) {
-		    logger.config("spring-security-config-location: " + configLocation + ", absolute path: " + new File(configLocation).getAbsolutePath());
+			logger.config("spring-security-config-location: " + configLocation + ", absolute path: " + new File(configLocation).getAbsolutePath());
 		}
 		
+		long startTime = System.nanoTime();
+		
 		/*
-		 * Extract Spring AuthenticationManager definition
+		 * Optional cache of successful authentications
 		 */
-		applicationContext = new FileSystemXmlApplicationContext(configLocation);
-		Map<String, AuthenticationManager> beansOfType = applicationContext.getBeansOfType(AuthenticationManager.class);
-		if (beansOfType.isEmpty()) {
-		    throw new SecurityException("No bean of type '"+AuthenticationManager.class.getName()+"' is defined in " + configLocation);
+		long cacheTimeToLive = getLongProperty(properties, AUTHENTICATION_CACHE_TTL, 0);
+		if (cacheTimeToLive > 0) {
+			int cacheMaxSize = (int) getLongProperty(properties, AUTHENTICATION_CACHE_MAX_SIZE, DEFAULT_AUTHENTICATION_CACHE_MAX_SIZE);
+			long cacheMaxStaleness = getLongProperty(properties, AUTHENTICATION_CACHE_MAX_STALENESS, 0);
+			authenticationCache = new AuthenticationCache(cacheTimeToLive, cacheMaxSize, cacheMaxStaleness);
+			if (logger.isLoggable(Level.CONFIG)) {
+				logger.config("authentication cache enabled, ttl: " + cacheTimeToLive + "ms, max size: " + cacheMaxSize
+						+ ", max staleness: " + cacheMaxStaleness + "ms");
+			}
 		}
-		if (beansOfType.size() > 1) {
-		    throw new SecurityException("More than one bean of type '"+AuthenticationManager.class.getName()+"' is defined in " + configLocation);
+		String snapshot = properties.getProperty(AUTHENTICATION_CACHE_SNAPSHOT);
+		if (snapshot != null && snapshot.trim().length() > 0) {
+			if (authenticationCache == null) {
+				throw new SecurityException("'" + AUTHENTICATION_CACHE_SNAPSHOT + "' requires '" + AUTHENTICATION_CACHE_TTL + "' to be set");
+			}
+			authenticationCacheSnapshot = new File(snapshot.trim());
 		}
-		authenticationManager = beansOfType.values().iterator().next();
 		
 		/*
-		 * Extract Group mapper implementation
+		 * Optional rejection of recently failed credentials and of users failing repeatedly
 		 */
-		groupMapper = (ActiveDirectoryGroupMapper)applicationContext.getBean(ActiveDirectoryGroupMapper.class);
-		if(groupMapper == null) {
-			throw new SecurityException("No bean for active directory group mapper defined");
+		long failedCacheTimeToLive = getLongProperty(properties, FAILED_AUTHENTICATION_CACHE_TTL, 0);
+		if (failedCacheTimeToLive > 0) {
+			int failedCacheMaxSize = (int) getLongProperty(properties, FAILED_AUTHENTICATION_CACHE_MAX_SIZE, DEFAULT_FAILED_AUTHENTICATION_CACHE_MAX_SIZE);
+			failedAuthenticationCache = new FailedAuthenticationCache(failedCacheTimeToLive, failedCacheMaxSize);
+			if (logger.isLoggable(Level.CONFIG)) {
+				logger.config("failed authentication cache enabled, ttl: " + failedCacheTimeToLive + "ms, max size: " + failedCacheMaxSize);
+			}
+		}
+		int failedAuthenticationLimit = (int) getLongProperty(properties, FAILED_AUTHENTICATION_LIMIT, 0);
+		if (failedAuthenticationLimit > 0) {
+			long failedAuthenticationWindow = getLongProperty(properties, FAILED_AUTHENTICATION_WINDOW, DEFAULT_FAILED_AUTHENTICATION_WINDOW);
+			failedAttemptLimiter = new FailedAttemptLimiter(failedAuthenticationLimit, failedAuthenticationWindow);
+			if (logger.isLoggable(Level.CONFIG)) {
+				logger.config("failed authentications limited to " + failedAuthenticationLimit + " per " + failedAuthenticationWindow + "ms");
+			}
+		}
+		
+		/*
+		 * Bounded authentication executor and deadline
+		 */
+		authenticationTimeout = getLongProperty(properties, AUTHENTICATION_TIMEOUT, DEFAULT_AUTHENTICATION_TIMEOUT);
+		authenticationThreads = (int) getLongProperty(properties, AUTHENTICATION_THREADS, DEFAULT_AUTHENTICATION_THREADS);
+		authenticationQueueSize = (int) getLongProperty(properties, AUTHENTICATION_QUEUE_SIZE, DEFAULT_AUTHENTICATION_QUEUE_SIZE);
+		if (authenticationThreads < 1 || authenticationQueueSize < 1) {
+			throw new SecurityException("'" + AUTHENTICATION_THREADS + "' and '" + AUTHENTICATION_QUEUE_SIZE + "' must be positive");
 		}
 		
+		warmUp = Boolean.parseBoolean(properties.getProperty(WARM_UP, "false").trim());
+		
+		/*
+		 * Optional audit log, written in the background
+		 */
+		String auditLogFile = properties.getProperty(AUDIT_LOG);
+		if (auditLogFile != null && auditLogFile.trim().length() > 0) {
+			long auditLogMaxFileSize = getLongProperty(properties, AUDIT_LOG_MAX_FILE_SIZE, DEFAULT_AUDIT_LOG_MAX_FILE_SIZE);
+			int auditLogMaxFiles = (int) getLongProperty(properties, AUDIT_LOG_MAX_FILES, DEFAULT_AUDIT_LOG_MAX_FILES);
+			int auditLogBufferSize = (int) getLongProperty(properties, AUDIT_LOG_BUFFER_SIZE, DEFAULT_AUDIT_LOG_BUFFER_SIZE);
+			auditLog = new AuthenticationAuditLog(new File(auditLogFile.trim()), auditLogMaxFileSize, auditLogMaxFiles, auditLogBufferSize);
+			if (logger.isLoggable(Level.CONFIG)) {
+				logger.config("audit log: " + auditLog.getFile().getAbsolutePath() + ", max file size: " + auditLogMaxFileSize
+						+ ", max files: " + auditLogMaxFiles + ", buffer size: " + auditLogBufferSize);
+			}
+		}
+		
+		/*
+		 * Restore the cache snapshot while the application context is loaded
+		 */
+		FutureTask<Void> restore = null;
+		if (authenticationCacheSnapshot != null) {
+			restore = new FutureTask<Void>(new Runnable() {
+				public void run() {
+					restoreAuthenticationCache();
+				}
+			}, null);
+			Thread thread = new Thread(restore, "ActiveDirectorySpringSecurityManager-restore");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		configLastModified = configFile(configLocation).lastModified();
+		configuration = loadConfiguration(configLocation);
+		
+		if (restore != null) {
+			long restoreWaitStartTime = System.nanoTime();
+			try {
+				restore.get();
+			} catch (Exception e) {
+				// logged by restoreAuthenticationCache
+			}
+			if (logger.isLoggable(Level.CONFIG)) {
+				logger.config("waited " + millisSince(restoreWaitStartTime) + "ms for the authentication cache snapshot");
+			}
+		}
+		
+		/*
+		 * Optional reloading of the configuration when the file changes
+		 */
+		long reloadInterval = getLongProperty(properties, SPRING_SECURITY_CONFIG_RELOAD_INTERVAL, 0);
+		if (reloadInterval > 0) {
+			startReloading(reloadInterval);
+		}
+		
+		registerMetrics();
+		if (logger.isLoggable(Level.INFO)) {
+			logger.info("initialized in " + millisSince(startTime) + "ms from " + configLocation);
+		}
+		
+		if (warmUp) {
+			warmUpInBackground(configuration);
+		}
+	}
+
+    /**
+     * Prepares for the first authentication: opens the initial connections to the domain controllers
+     * of each {@link PooledActiveDirectoryLdapAuthenticationProvider}, which resolves their host names
+     * and completes TLS handshakes, and runs the credential digest and group mapping once so their
+     * classes are loaded and compiled. Failures are logged.
+     */
+    public void warmUp() {
+        SecurityConfiguration current = configuration;
+        if (current.acquire()) {
+            try {
+                warmUp(current);
+            } finally {
+                current.release();
+            }
+        }
+    }
+
+    private void warmUpInBackground(final SecurityConfiguration configuration) {
+        if (!configuration.acquire()) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    warmUp(configuration);
+                } finally {
+                    configuration.release();
+                }
+            }
+        }, "ActiveDirectorySpringSecurityManager-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void warmUp(SecurityConfiguration configuration) {
+        long startTime = System.nanoTime();
+        try {
+            Set<PooledActiveDirectoryLdapAuthenticationProvider> providers = Collections.newSetFromMap(
+                    new IdentityHashMap<PooledActiveDirectoryLdapAuthenticationProvider, Boolean>());
+            ApplicationContext applicationContext = configuration.getApplicationContext();
+            if (applicationContext != null) {
+                providers.addAll(applicationContext.getBeansOfType(PooledActiveDirectoryLdapAuthenticationProvider.class).values());
+            }
+            if (configuration.getDomainRouter() != null) {
+                for (DomainRouter.Route route : configuration.getDomainRouter().getRoutes()) {
+                    if (route.domain.getAuthenticationManager() instanceof ProviderManager) {
+                        for (AuthenticationProvider provider : ((ProviderManager) route.domain.getAuthenticationManager()).getProviders()) {
+                            if (provider instanceof PooledActiveDirectoryLdapAuthenticationProvider) {
+                                providers.add((PooledActiveDirectoryLdapAuthenticationProvider) provider);
+                            }
+                        }
+                    }
+                }
+            }
+            for (PooledActiveDirectoryLdapAuthenticationProvider provider : providers) {
+                provider.warmUp();
+            }
+            long connectTime = millisSince(startTime);
+
+            credentialDigester.digest("warm-up", "warm-up");
+            createAuthenticationRequest(new User("warm-up", "warm-up"));
+            CompiledGroupMap compiledGroupMap = configuration.getCompiledGroupMap();
+            List<GrantedAuthority> groups = new ArrayList<GrantedAuthority>(compiledGroupMap.size());
+            for (String group : compiledGroupMap.getGroups()) {
+                groups.add(new SimpleGrantedAuthority(group));
+            }
+            GroupMapperAuthorityFactory.create(groups, compiledGroupMap, configuration.getGroupHierarchy());
+
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("warmed up in " + millisSince(startTime) + "ms (connections: " + connectTime + "ms)");
+            }
+        } catch (RuntimeException e) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Failed to warm up", e);
+            }
+        }
+    }
+
+    private static long millisSince(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Restores the authentication cache from its snapshot, if there is one; a snapshot which cannot
+     * be read is logged and ignored.
+     */
+    private void restoreAuthenticationCache() {
+        if (!authenticationCacheSnapshot.isFile()) {
+            if (logger.isLoggable(Level.CONFIG)) {
+                logger.config("no authentication cache snapshot at " + authenticationCacheSnapshot.getAbsolutePath());
+            }
+            return;
+        }
+        try {
+            int restored = AuthenticationCacheSnapshot.read(authenticationCacheSnapshot, authenticationCache);
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("restored " + restored + " cached authentications from "
+                        + authenticationCacheSnapshot.getAbsolutePath());
+            }
+        } catch (Exception e) {
+            authenticationCache.invalidateAll();
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Failed to restore cached authentications from " + authenticationCacheSnapshot.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    private void saveAuthenticationCache() {
+        try {
+            int saved = AuthenticationCacheSnapshot.write(authenticationCacheSnapshot, authenticationCache);
+            if (logger.isLoggable(Level.CONFIG)) {
+                logger.config("saved " + saved + " cached authentications to " + authenticationCacheSnapshot.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Failed to save cached authentications to " + authenticationCacheSnapshot.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Registers the authentication metrics with the platform MBean server; failure to do so is
+     * logged and does not fail initialization.
+     */
+    private void registerMetrics() {
+        try {
+            ObjectName objectName = new ObjectName(AuthenticationMetrics.class.getPackage().getName() + ":type="
+                    + AuthenticationMetrics.class.getSimpleName() + ",name=" + ObjectName.quote(configLocation) + ",id="
+                    + Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            metricsObjectName = objectName;
+        } catch (Exception e) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Failed to register authentication metrics MBean", e);
+            }
+        }
+    }
+
+    private void unregisterMetrics() {
+        if (metricsObjectName == null) {
+            return;
+        }
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mbeanServer.isRegistered(metricsObjectName)) {
+                mbeanServer.unregisterMBean(metricsObjectName);
+            }
+        } catch (Exception e) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Failed to unregister authentication metrics MBean", e);
+            }
+        }
+        metricsObjectName = null;
+    }
+
+    /**
+     * Creates the Spring application context and extracts the beans the security manager uses.
+     */
+	private SecurityConfiguration loadConfiguration(String configLocation) throws SecurityException {
+		/*
+		 * Refresh the application context
+		 */
+		long startTime = System.nanoTime();
+		FileSystemXmlApplicationContext applicationContext = new FileSystemXmlApplicationContext(new String[] { configLocation }, false);
+		try {
+			applicationContext.refresh();
+			if (logger.isLoggable(Level.CONFIG)) {
+				logger.config("refreshed the application context in " + millisSince(startTime) + "ms");
+			}
+		
+			/*
+			 * Optional routing to several domains, each with its own authentication manager and group mapper
+			 */
+			Map<String, ActiveDirectoryDomain> domains = applicationContext.getBeansOfType(ActiveDirectoryDomain.class);
+			if (!domains.isEmpty()) {
+				return loadDomainConfiguration(applicationContext, domains.values());
+			}
+		
+			/*
+			 * Extract Spring AuthenticationManager definition
+			 */
+			Map<String, AuthenticationManager> beansOfType = applicationContext.getBeansOfType(AuthenticationManager.class);
+			if (beansOfType.isEmpty()) {
+				throw new SecurityException("No bean of type '"+AuthenticationManager.class.getName()+"' is defined in " + configLocation);
+			}
+			if (beansOfType.size() > 1) {
+				throw new SecurityException("More than one bean of type '"+AuthenticationManager.class.getName()+"' is defined in " + configLocation);
+			}
+			AuthenticationManager authenticationManager = beansOfType.values().iterator().next();
+		
+			/*
+			 * Extract Group mapper implementation
+			 */
+			ActiveDirectoryGroupMapper groupMapper = (ActiveDirectoryGroupMapper)applicationContext.getBean(ActiveDirectoryGroupMapper.class);
+			if(groupMapper == null) {
+				throw new SecurityException("No bean for active directory group mapper defined");
+			}
+		
+			/*
+			 * Optional nested group resolution
+			 */
+			Map<String, ActiveDirectoryGroupHierarchy> hierarchies = applicationContext.getBeansOfType(ActiveDirectoryGroupHierarchy.class);
+			if (hierarchies.size() > 1) {
+				throw new SecurityException("More than one bean of type '"+ActiveDirectoryGroupHierarchy.class.getName()+"' is defined in " + configLocation);
+			}
+			ActiveDirectoryGroupHierarchy groupHierarchy = hierarchies.isEmpty() ? null : hierarchies.values().iterator().next();
+		
+			long compileStartTime = System.nanoTime();
+			SecurityConfiguration loaded = new SecurityConfiguration(applicationContext, authenticationManager, groupMapper, groupHierarchy);
+			if (logger.isLoggable(Level.CONFIG)) {
+				logger.config("compiled " + loaded.getCompiledGroupMap().size() + " group mappings in " + millisSince(compileStartTime) + "ms");
+			}
+			if (groupHierarchy != null) {
+				requireNestedGroups(authenticationManager);
+				long hierarchyStartTime = System.nanoTime();
+				groupHierarchy.start(loaded.getCompiledGroupMap());
+				if (logger.isLoggable(Level.CONFIG)) {
+					logger.config("loaded the group hierarchy in " + millisSince(hierarchyStartTime) + "ms");
+				}
+			}
+			return loaded;
+		} catch (RuntimeException e) {
+			applicationContext.close();
+			throw e;
+		}
 	}
 
+    /**
+     * Creates the configuration routing to the given domains. A domain without a group mapper uses
+     * the only group mapper bean of the application context. Each group mapper is compiled once,
+     * however many domains share it.
+     */
+    private SecurityConfiguration loadDomainConfiguration(ApplicationContext applicationContext, Collection<ActiveDirectoryDomain> domains)
+            throws SecurityException {
+        Map<String, ActiveDirectoryGroupMapper> groupMappers = applicationContext.getBeansOfType(ActiveDirectoryGroupMapper.class);
+        ActiveDirectoryGroupMapper defaultGroupMapper = groupMappers.size() == 1 ? groupMappers.values().iterator().next() : null;
+        long compileStartTime = System.nanoTime();
+        Map<ActiveDirectoryGroupMapper, CompiledGroupMap> compiledGroupMaps = new IdentityHashMap<ActiveDirectoryGroupMapper, CompiledGroupMap>();
+        if (defaultGroupMapper != null) {
+            compiledGroupMaps.put(defaultGroupMapper, SecurityConfiguration.compile(defaultGroupMapper));
+        }
+        List<DomainRouter.Route> routes = new ArrayList<DomainRouter.Route>(domains.size());
+        for (ActiveDirectoryDomain domain : domains) {
+            ActiveDirectoryGroupMapper groupMapper = domain.getGroupMapper() != null ? domain.getGroupMapper() : defaultGroupMapper;
+            if (groupMapper == null) {
+                throw new SecurityException("No group mapper defined for domain [" + domain.getName() + "] in " + configLocation);
+            }
+            CompiledGroupMap compiledGroupMap = compiledGroupMaps.get(groupMapper);
+            if (compiledGroupMap == null) {
+                compiledGroupMap = SecurityConfiguration.compile(groupMapper);
+                compiledGroupMaps.put(groupMapper, compiledGroupMap);
+            }
+            DomainRouter.Route route = new DomainRouter.Route(domain, compiledGroupMap);
+            if (domain.getGroupHierarchy() != null) {
+                requireNestedGroups(domain.getAuthenticationManager());
+                domain.getGroupHierarchy().start(route.compiledGroupMap);
+            }
+            routes.add(route);
+        }
+        if (logger.isLoggable(Level.CONFIG)) {
+            logger.config("compiled " + compiledGroupMaps.size() + " group maps in " + millisSince(compileStartTime) + "ms");
+            logger.config("routing authentications to domains " + domains);
+        }
+        return new SecurityConfiguration(applicationContext, null, defaultGroupMapper,
+                defaultGroupMapper != null ? compiledGroupMaps.get(defaultGroupMapper) : SecurityConfiguration.compile(null), null,
+                new DomainRouter(routes));
+    }
+
+    /**
+     * Makes the {@link PooledActiveDirectoryLdapAuthenticationProvider}s of an authentication manager
+     * whose group hierarchy resolves nested groups match mapped groups at any nesting depth, see
+     * {@link PooledActiveDirectoryLdapAuthenticationProvider#setNestedGroups(boolean)}.
+     */
+    private static void requireNestedGroups(AuthenticationManager authenticationManager) {
+        if (authenticationManager instanceof ProviderManager) {
+            for (AuthenticationProvider provider : ((ProviderManager) authenticationManager).getProviders()) {
+                if (provider instanceof PooledActiveDirectoryLdapAuthenticationProvider) {
+                    ((PooledActiveDirectoryLdapAuthenticationProvider) provider).requireNestedGroups();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the file of a file system location, which may be prefixed with <code>file:</code>
+     */
+    private static File configFile(String configLocation) {
+        return new File(configLocation.startsWith("file:") ? configLocation.substring("file:".length()) : configLocation);
+    }
+
+    private void startReloading(long reloadInterval) {
+        reloadScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ActiveDirectorySpringSecurityManager-reload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reloadScheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                long lastModified = configFile(configLocation).lastModified();
+                if (lastModified != 0 && lastModified != configLastModified) {
+                    configLastModified = lastModified;
+                    reload();
+                }
+            }
+        }, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+        if (logger.isLoggable(Level.CONFIG)) {
+            logger.config("checking " + configLocation + " for changes every " + reloadInterval + "ms");
+        }
+    }
+
+    /**
+     * Re-creates the Spring application context from the configuration file and, if successful,
+     * atomically replaces the authentication manager, group mapping and nested group resolution.
+     * Authentications in progress complete with the previous configuration, whose application context
+     * is closed once they are done. Cached authentications are discarded. If the new configuration
+     * fails to load, the previous one remains in use and the failure is logged.
+     * 
+     * @return <code>true</code> if the configuration was replaced
+     */
+    public synchronized boolean reload() {
+        if (configLocation == null) {
+            throw new IllegalStateException("security manager was not initialized");
+        }
+        SecurityConfiguration loaded;
+        try {
+            loaded = loadConfiguration(configLocation);
+        } catch (Exception e) {
+            failedReloadCount.incrementAndGet();
+            lastReloadFailure = e;
+            if (logger.isLoggable(Level.SEVERE)) {
+                logger.log(Level.SEVERE, "Failed to reload " + configLocation + "; keeping the previous configuration", e);
+            }
+            return false;
+        }
+        SecurityConfiguration previous = configuration;
+        configuration = loaded;
+        previous.retire();
+        invalidateCachedAuthentications();
+        reloadCount.incrementAndGet();
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("reloaded " + configLocation);
+        }
+        if (warmUp) {
+            warmUpInBackground(loaded);
+        }
+        return true;
+    }
+
+    private static long getLongProperty(Properties properties, String key, long defaultValue) throws SecurityException {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SecurityException("Illegal value for property '" + key + "': " + value, e);
+        }
+    }
+
     /**
      * Attempts to authenticate the passed {@link UserDetails} object, returning a fully populated
      * {@link Authentication} object (including granted authorities) if successful.
      * <p>
      * This call will utilioze the Group mapper factory to create a collection of XAP authorities
      * from a collection of "GrantedAuthority" (memberOf in Active Directory). 
+     * <p>
+     * If the authentication cache is enabled, a still valid result of a previous successful
+     * authentication with the same credentials is returned without contacting Active Directory.
+     * Concurrent calls with identical credentials are coalesced into a single call to the
+     * {@link AuthenticationManager} and share its result or failure.
+     * <p>
+     * The authentication runs on the bounded authentication executor (see
+     * {@link #authenticateAsync(UserDetails, long, TimeUnit)}) and fails if it does not complete
+     * within the <code>authentication-timeout</code>.
      * 
      * @param userDetails The GigaSpaces user details request object
      * @return a fully authenticated object including authorities 
@@ -125,33 +760,310 @@ public class ActiveDirectorySpringSecurityManager implements SecurityManager {
      */
 	public Authentication authenticate(UserDetails userDetails)
 			throws AuthenticationException {
+		AuthenticationFuture future = authenticateAsync(userDetails, authenticationTimeout, TimeUnit.MILLISECONDS);
 		try {
-			org.springframework.security.core.Authentication authenticate = authenticationManager.authenticate(createAuthenticationRequest(userDetails));
-			if (!authenticate.isAuthenticated()) {
-				throw new AuthenticationException("Authentication failed for user ["+userDetails.getUsername()+"]");
-			}
-			
-			// Create a list to hold granted authorities fetched from Active Directory
-			Collection<? extends GrantedAuthority> grantedAuthorities = authenticate.getAuthorities();
-			ArrayList<Authority> authoritiesList = new ArrayList<Authority>();
-			
-			authoritiesList.addAll(GroupMapperAuthorityFactory.create(grantedAuthorities, groupMapper.getGroupMap()));
-			
-			if (authoritiesList.size() < 1) {
-				throw new AuthenticationException("Authentication failed for user ["+userDetails.getUsername()+"]; User does not belong to any authority");
-			}
-			
-			User user = new User(userDetails.getUsername(), userDetails.getPassword(), authoritiesList.toArray(new Authority[authoritiesList.size()]));
-            return new Authentication(user);
-
-		} catch(Exception exception) {
-		    if (logger.isLoggable(Level.FINEST)) {
-		        logger.log(Level.FINEST, "Caught exception upon authentication: " + exception, exception);
-		    }
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable exception = e.getCause();
+			if (logger.isLoggable(Level.FINEST)) {
+				logger.log(Level.FINEST, "Caught exception upon authentication: " + exception, exception);
+			}
 			throw new AuthenticationException(exception);
+		} catch (CancellationException e) {
+			if (future.isExpired()) {
+				throw new AuthenticationException("Authentication of user [" + userDetails.getUsername() + "] timed out after "
+						+ authenticationTimeout + "ms", e);
+			}
+			throw new AuthenticationException("Authentication of user [" + userDetails.getUsername() + "] was cancelled", e);
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new AuthenticationException("Interrupted while authenticating user [" + userDetails.getUsername() + "]", e);
 		}
 	}
 
+    /**
+     * Authenticates asynchronously, see {@link #authenticate(UserDetails)}. A cached authentication
+     * completes the returned future right away, as do credentials which recently failed to
+     * authenticate and users who failed too often, if the {@link FailedAuthenticationCache} and
+     * {@link FailedAttemptLimiter} are enabled. Otherwise the authentication is queued on the
+     * bounded authentication executor. When the executor's queue is full, the future fails right
+     * away with a {@link java.util.concurrent.RejectedExecutionException} instead of queuing more
+     * work behind a slow domain controller.
+     * <p>
+     * An authentication still queued at its deadline is skipped, and waiting for it with
+     * {@link AuthenticationFuture#get()} ends at the deadline with a
+     * {@link java.util.concurrent.CancellationException}, interrupting the authentication. Callers
+     * no longer interested in the result should cancel the future, which frees its place in the queue.
+     * 
+     * @param timeout time after which the authentication expires; <code>0</code> for no deadline
+     * @return the future result; it fails with the exception the authentication failed with
+     */
+    public AuthenticationFuture authenticateAsync(final UserDetails userDetails, long timeout, TimeUnit unit) {
+        long startTime = System.nanoTime();
+        long deadline = timeout > 0 ? startTime + unit.toNanos(timeout) : 0;
+        final CredentialKey credentialKey = credentialDigester.digest(userDetails.getUsername(), userDetails.getPassword());
+        // matching the password against restored authentications derives hashes, so it is deferred
+        // to the authentication executor, after the local rejections
+        final boolean restoredLookup = authenticationCache != null && authenticationCache.hasRestoredEntries(userDetails.getUsername());
+        final Authentication cached = restoredLookup ? null : cachedAuthentication(userDetails, credentialKey, null);
+        final Exception rejection = cached == null ? rejectLocally(credentialKey) : null;
+        AuthenticationFuture future = new AuthenticationFuture(new Callable<Authentication>() {
+            public Authentication call() throws Exception {
+                if (rejection != null) {
+                    throw rejection;
+                }
+                if (cached != null) {
+                    return cached;
+                }
+                Authentication restored = restoredLookup ? cachedAuthentication(userDetails, credentialKey, userDetails.getPassword()) : null;
+                return restored != null ? restored : authenticate(userDetails, credentialKey);
+            }
+        }, startTime, deadline, metrics, userDetails.getUsername(), auditLog);
+        if (cached != null || rejection != null) {
+            future.run();
+        } else {
+            future.submit(authenticationExecutor());
+        }
+        return future;
+    }
+
+    /**
+     * @param password the password to match restored authentications with, or <code>null</code> to
+     *            only look up the credential key
+     * @return the cached authentication, or <code>null</code>; a stale one is refreshed in the background
+     */
+    private Authentication cachedAuthentication(UserDetails userDetails, CredentialKey credentialKey, String password) {
+        if (authenticationCache == null) {
+            return null;
+        }
+        AuthenticationCache.Entry entry = authenticationCache.getEntry(credentialKey, password);
+        if (entry == null) {
+            metrics.recordCacheMiss();
+            return null;
+        }
+        metrics.recordCacheHit();
+        if (entry.isStale() && entry.startRefresh()) {
+            refresh(userDetails, credentialKey, entry);
+        }
+        Authentication authentication = entry.getAuthentication();
+        if (entry.isRestored()) {
+            // restored authentications carry no password
+            User user = new User(userDetails.getUsername(), userDetails.getPassword(), authentication.getUserDetails().getAuthorities());
+            authentication = authentication instanceof ActiveDirectoryAuthentication
+                    ? new ActiveDirectoryAuthentication(user, (PrivilegeGrantedAuthorities) authentication.getGrantedAuthorities())
+                    : new Authentication(user);
+        }
+        return authentication;
+    }
+
+    /**
+     * Re-authenticates stale cached credentials on the authentication executor. The stale entry is
+     * removed if the authentication is rejected, e.g. the credentials are no longer valid, the
+     * account is disabled, locked or gone, or it no longer maps to any authority; when Active
+     * Directory could not be asked, such as with an unreachable domain controller, it is served until
+     * its maximum staleness.
+     */
+    private void refresh(final UserDetails userDetails, final CredentialKey credentialKey, final AuthenticationCache.Entry stale) {
+        try {
+            authenticationExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        authenticate(userDetails, credentialKey);
+                    } catch (AuthenticationServiceException e) {
+                        refreshFailed(e);
+                    } catch (org.springframework.security.core.AuthenticationException e) {
+                        authenticationCache.remove(credentialKey, stale);
+                    } catch (NoMappedAuthorityException e) {
+                        authenticationCache.remove(credentialKey, stale);
+                    } catch (Exception e) {
+                        refreshFailed(e);
+                    }
+                }
+
+                private void refreshFailed(Exception e) {
+                    stale.refreshFailed();
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.log(Level.FINE, "Failed to refresh the cached authentication of user [" + userDetails.getUsername()
+                                + "]; serving it until its maximum staleness", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stale.refreshFailed();
+        }
+    }
+
+    /**
+     * @return the exception to reject the credentials with without contacting Active Directory, or
+     *         <code>null</code>
+     */
+    private Exception rejectLocally(CredentialKey credentialKey) {
+        if (failedAuthenticationCache != null && failedAuthenticationCache.contains(credentialKey)) {
+            metrics.recordFailedCacheHit();
+            return new BadCredentialsException("Bad credentials; the same credentials failed to authenticate recently");
+        }
+        if (failedAttemptLimiter != null && failedAttemptLimiter.isLimited(credentialKey.getUsername())) {
+            return new TooManyFailedAttemptsException("Too many failed authentications of user [" + credentialKey.getUsername()
+                    + "]; try again later");
+        }
+        return null;
+    }
+
+    private Authentication authenticate(final UserDetails userDetails, final CredentialKey credentialKey) throws Exception {
+        // Concurrent requests with identical credentials share a single Active Directory round trip
+        Authentication authentication = inFlightAuthentications.execute(credentialKey, new Callable<Authentication>() {
+            public Authentication call() throws Exception {
+                SecurityConfiguration current = acquireConfiguration();
+                try {
+                    Authentication authentication = authenticateWithAuthenticationManager(userDetails, current);
+                    if (failedAttemptLimiter != null) {
+                        failedAttemptLimiter.reset(credentialKey.getUsername());
+                    }
+                    return authentication;
+                } catch (BadCredentialsException e) {
+                    if (failedAuthenticationCache != null) {
+                        failedAuthenticationCache.put(credentialKey);
+                    }
+                    if (failedAttemptLimiter != null) {
+                        failedAttemptLimiter.recordFailure(credentialKey.getUsername());
+                    }
+                    throw e;
+                } finally {
+                    current.release();
+                }
+            }
+        });
+        if (authenticationCache != null) {
+            if (authenticationCacheSnapshot != null) {
+                // keeps a verifier of the password to save in the snapshot
+                authenticationCache.put(credentialKey, authentication, userDetails.getPassword());
+            } else {
+                authenticationCache.put(credentialKey, authentication);
+            }
+        }
+        return authentication;
+    }
+
+    /**
+     * @return the authentication executor, created on first use
+     */
+    private ThreadPoolExecutor authenticationExecutor() {
+        ThreadPoolExecutor executor = authenticationExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = authenticationExecutor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(authenticationThreads, authenticationThreads, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(authenticationQueueSize), new ThreadFactory() {
+                                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable, "ActiveDirectorySpringSecurityManager-authenticate-"
+                                            + threadNumber.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            }, new ThreadPoolExecutor.AbortPolicy());
+                    executor.allowCoreThreadTimeOut(true);
+                    authenticationExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @return the executor of parallel domain authentications, created on first use
+     */
+    private ThreadPoolExecutor domainExecutor() {
+        ThreadPoolExecutor executor = domainExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = domainExecutor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(0, authenticationThreads * DOMAIN_THREADS_PER_AUTHENTICATION_THREAD, 60, TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable, "ActiveDirectorySpringSecurityManager-domain-"
+                                            + threadNumber.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            }, new ThreadPoolExecutor.AbortPolicy());
+                    domainExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @return the current configuration, which the caller must release
+     */
+    private SecurityConfiguration acquireConfiguration() {
+        for (;;) {
+            SecurityConfiguration current = configuration;
+            if (current.acquire()) {
+                return current;
+            }
+            if (current == configuration) {
+                throw new AuthenticationException("Security manager is closed");
+            }
+        }
+    }
+
+    private Authentication authenticateWithAuthenticationManager(final UserDetails userDetails, SecurityConfiguration configuration)
+            throws Exception {
+        DomainRouter domainRouter = configuration.getDomainRouter();
+        if (domainRouter == null) {
+            return authenticateWithAuthenticationManager(userDetails, userDetails, configuration.getAuthenticationManager(),
+                    configuration.getCompiledGroupMap(), configuration.getGroupHierarchy());
+        }
+        return domainRouter.authenticate(userDetails.getUsername(), new DomainRouter.DomainAuthenticator() {
+            public Authentication authenticate(String username, DomainRouter.Route route) {
+                UserDetails request = username.equals(userDetails.getUsername()) ? userDetails : new User(username, userDetails.getPassword());
+                return authenticateWithAuthenticationManager(userDetails, request, route.domain.getAuthenticationManager(),
+                        route.compiledGroupMap, route.getGroupHierarchy());
+            }
+        }, domainExecutor());
+    }
+
+    /**
+     * @param request the user details to authenticate with, e.g. without the domain prefix of the
+     *            username the user entered
+     */
+    private Authentication authenticateWithAuthenticationManager(UserDetails userDetails, UserDetails request,
+            AuthenticationManager authenticationManager, CompiledGroupMap compiledGroupMap, GroupHierarchy groupHierarchy) {
+        long bindStartTime = System.nanoTime();
+        org.springframework.security.core.Authentication authenticate;
+        try {
+            authenticate = authenticationManager.authenticate(createAuthenticationRequest(request));
+        } finally {
+            metrics.recordBind(System.nanoTime() - bindStartTime);
+        }
+        if (!authenticate.isAuthenticated()) {
+            throw new AuthenticationException("Authentication failed for user ["+userDetails.getUsername()+"]");
+        }
+
+        // Map granted authorities fetched from Active Directory to XAP authorities
+        long mappingStartTime = System.nanoTime();
+        Collection<? extends GrantedAuthority> grantedAuthorities = authenticate.getAuthorities();
+        PrivilegeGrantedAuthorities resolved = compiledGroupMap.resolveGrantedAuthorities(grantedAuthorities, groupHierarchy);
+        Authority[] authorities = resolved.getAuthorities();
+        metrics.recordGroupMapping(System.nanoTime() - mappingStartTime);
+
+        if (authorities.length < 1) {
+            throw new NoMappedAuthorityException("Authentication failed for user ["+userDetails.getUsername()+"]; User does not belong to any authority");
+        }
+
+        String[] mappedGroups = auditLog != null ? compiledGroupMap.getMappedGroups(grantedAuthorities, groupHierarchy) : null;
+        User user = new AuthenticatedUser(userDetails.getUsername(), userDetails.getPassword(), mappedGroups, authorities);
+        return new ActiveDirectoryAuthentication(user, resolved);
+    }
+
     /**
      * Creates an {@link org.springframework.security.core.Authentication} request object to be
      * passed to the
@@ -170,12 +1082,34 @@ public class ActiveDirectorySpringSecurityManager implements SecurityManager {
     }
 
 	/**
-	 * Closes the Spring application context using {@link ConfigurableApplicationContext#close()}.
+	 * Stops reloading, stops the authentication threads, unregisters the metrics MBean, flushes and
+	 * closes the audit log, saves the authentication cache snapshot if configured, clears the
+	 * authentication cache and closes the Spring application context using
+	 * {@link ConfigurableApplicationContext#close()} once authentications in progress are done.
 	 */
 	public void close() {
-		if (applicationContext instanceof ConfigurableApplicationContext) {
-		    ((ConfigurableApplicationContext)applicationContext).close();
+		if (reloadScheduler != null) {
+			reloadScheduler.shutdownNow();
+		}
+		synchronized (this) {
+			if (authenticationExecutor != null) {
+				authenticationExecutor.shutdownNow();
+			}
+			if (domainExecutor != null) {
+				domainExecutor.shutdown();
+			}
+		}
+		unregisterMetrics();
+		if (auditLog != null) {
+			auditLog.close();
+		}
+		if (authenticationCache != null) {
+			if (authenticationCacheSnapshot != null) {
+				saveAuthenticationCache();
+			}
+			authenticationCache.invalidateAll();
 		}
+		configuration.retire();
 	}
 
     /**
@@ -188,15 +1122,176 @@ public class ActiveDirectorySpringSecurityManager implements SecurityManager {
 				"user/role information should be managed by a compatible external directory tools.");
 	}
 
+    /**
+     * Removes all cached authentications and remembered failures of the given user, e.g. after the
+     * user's password or group membership has changed in Active Directory. Has no effect if caching
+     * is disabled.
+     */
+    public void invalidateCachedAuthentication(String username) {
+        if (authenticationCache != null) {
+            authenticationCache.invalidate(username);
+        }
+        if (failedAuthenticationCache != null) {
+            failedAuthenticationCache.invalidate(username);
+        }
+        if (failedAttemptLimiter != null) {
+            failedAttemptLimiter.reset(username);
+        }
+    }
+
+    /**
+     * Removes all cached authentications and remembered failed credentials. Has no effect if caching
+     * is disabled.
+     */
+    public void invalidateCachedAuthentications() {
+        if (authenticationCache != null) {
+            authenticationCache.invalidateAll();
+        }
+        if (failedAuthenticationCache != null) {
+            failedAuthenticationCache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the in-flight authentications, including the number of coalesced calls
+     */
+    public SingleFlight<CredentialKey, Authentication> getInFlightAuthentications() {
+        return inFlightAuthentications;
+    }
+
+    /**
+     * @return the authentication counters and latencies, also registered as an MBean on {@link #init(Properties)}
+     */
+    public AuthenticationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public AuthenticationCache getAuthenticationCache() {
+        return authenticationCache;
+    }
+
+    public void setAuthenticationCache(AuthenticationCache authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+
+    public FailedAuthenticationCache getFailedAuthenticationCache() {
+        return failedAuthenticationCache;
+    }
+
+    public void setFailedAuthenticationCache(FailedAuthenticationCache failedAuthenticationCache) {
+        this.failedAuthenticationCache = failedAuthenticationCache;
+    }
+
+    public AuthenticationAuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    public void setAuditLog(AuthenticationAuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    public FailedAttemptLimiter getFailedAttemptLimiter() {
+        return failedAttemptLimiter;
+    }
+
+    public void setFailedAttemptLimiter(FailedAttemptLimiter failedAttemptLimiter) {
+        this.failedAttemptLimiter = failedAttemptLimiter;
+    }
+
+    /**
+     * @return the time in milliseconds after which {@link #authenticate(UserDetails)} fails
+     */
+    public long getAuthenticationTimeout() {
+        return authenticationTimeout;
+    }
+
+    public void setAuthenticationTimeout(long authenticationTimeout) {
+        this.authenticationTimeout = authenticationTimeout;
+    }
+
+    /**
+     * Sets the number of authentication threads; takes effect if set before the first authentication.
+     */
+    public void setAuthenticationThreads(int authenticationThreads) {
+        this.authenticationThreads = authenticationThreads;
+    }
+
+    /**
+     * Sets the number of authentications which may wait for an authentication thread; takes effect
+     * if set before the first authentication.
+     */
+    public void setAuthenticationQueueSize(int authenticationQueueSize) {
+        this.authenticationQueueSize = authenticationQueueSize;
+    }
+
+    /**
+     * @return the number of successful configuration reloads
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * @return the number of configuration reloads which failed and left the previous configuration in use
+     */
+    public long getFailedReloadCount() {
+        return failedReloadCount.get();
+    }
+
+    /**
+     * @return the cause of the last failed reload, or <code>null</code>
+     */
+    public Exception getLastReloadFailure() {
+        return lastReloadFailure;
+    }
+
+    /**
+     * Sets the nested group resolution; the hierarchy is expected to be started.
+     */
+    public void setGroupHierarchy(ActiveDirectoryGroupHierarchy groupHierarchy) {
+        this.configuration = configuration.withGroupHierarchy(groupHierarchy);
+        if (groupHierarchy != null) {
+            requireNestedGroups(configuration.getAuthenticationManager());
+        }
+    }
+
+    @Autowired
     public void setApplicationContext(ApplicationContext applicationContext) {
-        this.applicationContext = applicationContext;
+        this.configuration = configuration.withApplicationContext(applicationContext);
     }
 
+    @Autowired
     public void setAuthenticationManager(AuthenticationManager authenticationManager) {
-        this.authenticationManager = authenticationManager;
+        this.configuration = configuration.withAuthenticationManager(authenticationManager);
+        if (configuration.getActiveDirectoryGroupHierarchy() != null) {
+            requireNestedGroups(authenticationManager);
+        }
     }
 
+    /**
+     * Sets the group mapper and compiles its group map.
+     * 
+     * @throws SecurityException if the group map contains an illegal mapping
+     */
+    @Autowired
     public void setGroupMapper(ActiveDirectoryGroupMapper groupMapper) {
-        this.groupMapper = groupMapper;
+        this.configuration = configuration.withGroupMapper(groupMapper);
+    }
+
+    /**
+     * Routes authentications to the given domains instead of the authentication manager. A domain
+     * without a group mapper uses the {@link #setGroupMapper(ActiveDirectoryGroupMapper) group
+     * mapper}; domain group hierarchies are expected to be started.
+     * 
+     * @throws SecurityException if a group map contains an illegal mapping, or two domains share a
+     *             UPN suffix or NetBIOS name
+     */
+    public void setDomains(List<ActiveDirectoryDomain> domains) {
+        List<DomainRouter.Route> routes = new ArrayList<DomainRouter.Route>(domains.size());
+        for (ActiveDirectoryDomain domain : domains) {
+            routes.add(new DomainRouter.Route(domain, domain.getGroupMapper() != null ? SecurityConfiguration.compile(domain.getGroupMapper())
+                    : configuration.getCompiledGroupMap()));
+        }
+        this.configuration = configuration.withDomainRouter(routes.isEmpty() ? null : new DomainRouter(routes));
     }
 }
\ No newline at end of file
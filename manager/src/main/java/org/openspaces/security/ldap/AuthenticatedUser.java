@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authority;
+import com.gigaspaces.security.directory.User;
+
+/**
+ * A {@link User} authenticated against Active Directory, which also remembers the Active Directory
+ * groups its authorities were mapped from. The groups are kept for auditing only: the user is
+ * serialized as a plain {@link User}, so it is never sent to a space or client which does not have
+ * this class.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+class AuthenticatedUser extends User {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] NO_GROUPS = new String[0];
+
+    private final transient String[] mappedGroups;
+
+    /**
+     * @param mappedGroups the mapped groups the authorities were resolved from, or <code>null</code>
+     *            if they were not collected
+     */
+    AuthenticatedUser(String username, String password, String[] mappedGroups, Authority... authorities) {
+        super(username, password, authorities);
+        this.mappedGroups = mappedGroups != null ? mappedGroups : NO_GROUPS;
+    }
+
+    /**
+     * @return the mapped groups; must not be modified
+     */
+    String[] getMappedGroups() {
+        return mappedGroups;
+    }
+
+    private Object writeReplace() {
+        return new User(getUsername(), getPassword(), getAuthorities());
+    }
+}
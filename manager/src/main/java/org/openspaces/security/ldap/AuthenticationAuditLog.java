@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.gigaspaces.security.Authentication;
+import com.gigaspaces.security.Authority;
+import com.gigaspaces.security.SecurityException;
+import com.gigaspaces.security.SecurityManager;
+import com.gigaspaces.security.directory.UserDetails;
+
+/**
+ * An append-only log of authentication events, written off the authentication path. Authenticating
+ * threads only hand an event to a bounded lock-free {@link MpscRingBuffer}; a single background
+ * thread formats the events and writes them in batches. When the buffer is full, events are
+ * dropped rather than slowing down authentication, and counted (see {@link #getDroppedCount()}).
+ * An event holds the username, mapped groups and authorities only, not the user details with
+ * their password. When writing fails, the writer retries after a backoff period which doubles with
+ * each consecutive failure, up to a minute, while new events fill the buffer.
+ * <p>
+ * Each event is a line of tab separated fields:
+ * 
+ * <pre>
+ * 2026-10-18T09:15:02.117Z  OK  1840  jsmith  Admins,DevOps  SystemPrivilege MANAGE_ROLES,SpacePrivilege READ
+ * </pre>
+ * 
+ * the time the authentication completed (UTC), <code>OK</code> or the simple name of the exception
+ * the authentication failed with, its latency in microseconds, the username, the mapped Active
+ * Directory groups and the granted authorities. Tabs, line breaks and backslashes within fields
+ * are escaped with a backslash. The log is rolled over once it exceeds its maximum size: the file
+ * is renamed to <code>&lt;file&gt;.1</code>, shifting older files up to the maximum number kept.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class AuthenticationAuditLog {
+
+    private static final Logger logger = Logger.getLogger(SecurityManager.class.getPackage().getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String OK = "OK";
+
+    /** Pause of the writer while the buffer is empty */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** Pauses of the writer after consecutive write failures */
+    private static final long INITIAL_FAILURE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_FAILURE_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String[] NONE = new String[0];
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final MpscRingBuffer<Event> events;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong droppedOnClose = new AtomicLong();
+    // the number of record() calls between checking closed and offering their event
+    private final AtomicInteger recording = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // accessed by the writer thread only, and by close() once the writer stopped
+    private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder(256);
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    // null after a failed roll over until the file is opened again
+    private FileChannel channel;
+    private long fileSize;
+
+    /**
+     * Opens the log file for appending and starts the writer thread.
+     * 
+     * @param maxFileSize the size in bytes after which the file is rolled over
+     * @param maxFiles the number of files kept, including the current one
+     * @param bufferSize the number of events which may wait to be written, rounded up to a power of two
+     * @throws SecurityException if the file can't be opened
+     */
+    public AuthenticationAuditLog(File file, long maxFileSize, int maxFiles, int bufferSize) throws SecurityException {
+        if (maxFileSize < 1 || maxFiles < 1 || bufferSize < 1) {
+            throw new SecurityException("Audit log file size, number of files and buffer size must be positive");
+        }
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.events = new MpscRingBuffer<Event>(bufferSize);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            open();
+        } catch (IOException e) {
+            throw new SecurityException("Failed to open audit log [" + file.getAbsolutePath() + "]", e);
+        }
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeEvents();
+            }
+        }, "ActiveDirectorySpringSecurityManager-audit");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Hands an authentication event to the writer; never blocks.
+     * 
+     * @param authentication the authentication, or <code>null</code> if it failed
+     * @param failure the type of exception the authentication failed with, or <code>null</code> if it
+     *            succeeded
+     * @return <code>false</code> if the event was dropped because the buffer is full or the log is closed
+     */
+    boolean record(String username, Authentication authentication, Class<? extends Exception> failure, long elapsedNanos) {
+        recording.incrementAndGet();
+        try {
+            if (closed) {
+                return false;
+            }
+            UserDetails userDetails = authentication != null ? authentication.getUserDetails() : null;
+            return events.offer(new Event(System.currentTimeMillis(), elapsedNanos, username, mappedGroups(userDetails),
+                    authorities(userDetails), failure));
+        } finally {
+            recording.decrementAndGet();
+        }
+    }
+
+    private static String[] mappedGroups(UserDetails userDetails) {
+        return userDetails instanceof AuthenticatedUser ? ((AuthenticatedUser) userDetails).getMappedGroups() : NONE;
+    }
+
+    private static String[] authorities(UserDetails userDetails) {
+        if (userDetails == null || userDetails.getAuthorities() == null) {
+            return NONE;
+        }
+        Authority[] authorities = userDetails.getAuthorities();
+        String[] strings = new String[authorities.length];
+        for (int i = 0; i < authorities.length; i++) {
+            strings[i] = authorities[i].getAuthority();
+        }
+        return strings;
+    }
+
+    private void writeEvents() {
+        long failureBackoffNanos = 0;
+        while (!closed) {
+            try {
+                if (channel == null) {
+                    open();
+                }
+                boolean drained = drain();
+                failureBackoffNanos = 0;
+                if (!drained) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            } catch (IOException e) {
+                failureBackoffNanos = failureBackoffNanos == 0 ? INITIAL_FAILURE_BACKOFF_NANOS : Math.min(failureBackoffNanos * 2,
+                        MAX_FAILURE_BACKOFF_NANOS);
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.log(Level.WARNING, "Failed to write audit log [" + file.getAbsolutePath() + "]; retrying in "
+                            + TimeUnit.NANOSECONDS.toSeconds(failureBackoffNanos) + "s", e);
+                }
+                LockSupport.parkNanos(this, failureBackoffNanos);
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered events.
+     * 
+     * @return <code>false</code> if there were none
+     */
+    private boolean drain() throws IOException {
+        boolean drained = false;
+        Event event;
+        while ((event = events.poll()) != null) {
+            byte[] bytes = format(event);
+            long size = fileSize + buffer.position();
+            if (size > 0 && size + bytes.length > maxFileSize) {
+                flush();
+                roll();
+            } else if (buffer.remaining() < bytes.length) {
+                flush();
+            }
+            if (bytes.length > buffer.capacity()) {
+                write(ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+            written.incrementAndGet();
+            drained = true;
+        }
+        flush();
+        return drained;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        try {
+            write(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            fileSize += channel.write(bytes);
+        }
+    }
+
+    private byte[] format(Event event) {
+        line.setLength(0);
+        line.append(dateFormat.format(new Date(event.timeMillis))).append('\t');
+        line.append(event.failure == null ? OK : event.failure.getSimpleName()).append('\t');
+        line.append(TimeUnit.NANOSECONDS.toMicros(event.elapsedNanos)).append('\t');
+        appendEscaped(event.username);
+        line.append('\t');
+        appendList(event.mappedGroups);
+        line.append('\t');
+        appendList(event.authorities);
+        line.append('\n');
+        return line.toString().getBytes(UTF_8);
+    }
+
+    private void appendList(String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            appendEscaped(values[i]);
+        }
+    }
+
+    private void appendEscaped(String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '\t':
+                line.append("\\t");
+                break;
+            case '\n':
+                line.append("\\n");
+                break;
+            case '\r':
+                line.append("\\r");
+                break;
+            case '\\':
+                line.append("\\\\");
+                break;
+            default:
+                line.append(c);
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory [" + parent + "]");
+        }
+        channel = new FileOutputStream(file, true).getChannel();
+        fileSize = channel.size();
+    }
+
+    /**
+     * Renames <code>file.(n)</code> to <code>file.(n+1)</code>, dropping the oldest, and starts a new file.
+     */
+    private void roll() throws IOException {
+        channel.close();
+        channel = null;
+        if (maxFiles == 1) {
+            file.delete();
+        } else {
+            new File(file.getPath() + "." + (maxFiles - 1)).delete();
+            for (int i = maxFiles - 2; i >= 1; i--) {
+                new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+            file.renameTo(new File(file.getPath() + ".1"));
+        }
+        open();
+    }
+
+    /**
+     * Stops accepting events, writes the events already buffered and closes the file. Events which
+     * can't be written, because the file can't be opened or the writer does not stop in time, are
+     * counted as dropped.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // events offered by concurrent calls are buffered before the final drain
+        while (recording.get() != 0) {
+            Thread.yield();
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean writerStopped = !writer.isAlive();
+        try {
+            if (writerStopped) {
+                if (channel == null) {
+                    open();
+                }
+                drain();
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Failed to close audit log [" + file.getAbsolutePath() + "]", e);
+            }
+        } finally {
+            if (writerStopped) {
+                while (events.poll() != null) {
+                    droppedOnClose.incrementAndGet();
+                }
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignore, nothing more is written
+                }
+            }
+        }
+        long dropped = getDroppedCount();
+        if (dropped > 0 && logger.isLoggable(Level.WARNING)) {
+            logger.warning("Audit log [" + file.getAbsolutePath() + "] dropped " + dropped + " events");
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of events written
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full, or because they could not
+     *         be written on close
+     */
+    public long getDroppedCount() {
+        return events.getDroppedCount() + droppedOnClose.get();
+    }
+
+    private static final class Event {
+
+        final long timeMillis;
+        final long elapsedNanos;
+        final String username;
+        final String[] mappedGroups;
+        final String[] authorities;
+        final Class<?> failure;
+
+        Event(long timeMillis, long elapsedNanos, String username, String[] mappedGroups, String[] authorities, Class<?> failure) {
+            this.timeMillis = timeMillis;
+            this.elapsedNanos = elapsedNanos;
+            this.username = username;
+            this.mappedGroups = mappedGroups;
+            this.authorities = authorities;
+            this.failure = failure;
+        }
+    }
+}
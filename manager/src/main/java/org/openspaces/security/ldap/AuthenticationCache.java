@@ -0,0 +1,460 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gigaspaces.security.Authentication;
+
+/**
+ * A bounded, time-to-live cache of successful {@link Authentication} results, keyed by
+ * {@link CredentialKey}. Entries are evicted in least-recently-used order once the maximum size is
+ * reached, and are ignored (and removed) once their time-to-live has passed.
+ * <p>
+ * Only successful authentications are cached; a changed password yields a different
+ * {@link CredentialKey} and therefore a cache miss.
+ * <p>
+ * With a maximum staleness, an entry past its time-to-live is still served for that long while the
+ * caller refreshes it (see {@link Entry#isStale()}), so a slow or unreachable domain controller
+ * does not fail logins which succeeded recently.
+ * <p>
+ * Authentications restored from a snapshot are keyed by username and {@link PasswordVerifier}
+ * until the first hit with a matching password, which moves them under the caller's
+ * {@link CredentialKey}.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class AuthenticationCache {
+
+    private final long timeToLiveNanos;
+    private final long maxStalenessNanos;
+    private final int maxSize;
+    private final LinkedHashMap<CredentialKey, Entry> entries;
+    private final Map<String, List<Entry>> restoredEntries = new HashMap<String, List<Entry>>();
+    private int restoredCount;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param timeToLiveMillis how long a cached authentication is served, in milliseconds
+     * @param maxSize the maximum number of cached authentications
+     */
+    public AuthenticationCache(long timeToLiveMillis, int maxSize) {
+        this(timeToLiveMillis, maxSize, 0);
+    }
+
+    /**
+     * @param timeToLiveMillis how long a cached authentication is served, in milliseconds
+     * @param maxSize the maximum number of cached authentications
+     * @param maxStalenessMillis how long after its time-to-live a cached authentication is still
+     *            served while it is refreshed, in milliseconds
+     */
+    public AuthenticationCache(long timeToLiveMillis, final int maxSize, long maxStalenessMillis) {
+        if (timeToLiveMillis <= 0) {
+            throw new IllegalArgumentException("timeToLiveMillis must be positive: " + timeToLiveMillis);
+        }
+        if (maxStalenessMillis < 0) {
+            throw new IllegalArgumentException("maxStalenessMillis must not be negative: " + maxStalenessMillis);
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<CredentialKey, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CredentialKey, Entry> eldest) {
+                if (size() + restoredCount <= maxSize) {
+                    return false;
+                }
+                evictions.incrementAndGet();
+                if (restoredCount > 0) {
+                    // restored entries not hit since the restart make room first
+                    evictRestoredEntry();
+                    return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Removes any one restored entry; called with the lock held.
+     */
+    private void evictRestoredEntry() {
+        Map.Entry<String, List<Entry>> userEntries = restoredEntries.entrySet().iterator().next();
+        removeRestoredEntry(userEntries.getKey(), userEntries.getValue().get(0));
+    }
+
+    /**
+     * @return the cached authentication for these credentials, or <code>null</code> if there is
+     *         none or it has expired; may be stale if a maximum staleness is set
+     */
+    public Authentication get(CredentialKey key) {
+        Entry entry = getEntry(key);
+        return entry == null ? null : entry.authentication;
+    }
+
+    /**
+     * @return the cache entry for these credentials, or <code>null</code> if there is none or it is
+     *         older than the time-to-live plus the maximum staleness
+     */
+    public Entry getEntry(CredentialKey key) {
+        return getEntry(key, null);
+    }
+
+    /**
+     * Like {@link #getEntry(CredentialKey)}, but on a miss also looks for a restored authentication
+     * of the user whose verifier matches the given password, and if there is one moves it under the
+     * given key.
+     */
+    Entry getEntry(CredentialKey key, String password) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (isServed(entry, now)) {
+                    hits.incrementAndGet();
+                    if (entry.isStale()) {
+                        staleHits.incrementAndGet();
+                    }
+                    return entry;
+                }
+                entries.remove(key);
+            }
+        }
+        Entry restored = password == null ? null : takeRestoredEntry(key, password, now);
+        if (restored != null) {
+            hits.incrementAndGet();
+            staleHits.incrementAndGet();
+            return restored;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> if authentications of the user restored from a snapshot were not hit
+     *         yet, in which case {@link #getEntry(CredentialKey, String)} may derive password hashes
+     */
+    boolean hasRestoredEntries(String username) {
+        synchronized (entries) {
+            return restoredCount != 0 && restoredEntries.containsKey(username);
+        }
+    }
+
+    private boolean isServed(Entry entry, long now) {
+        return now - entry.createdNanos < timeToLiveNanos + maxStalenessNanos;
+    }
+
+    /**
+     * @return the restored entry of the user whose verifier matches the password, now cached under
+     *         the given key, or <code>null</code>
+     */
+    private Entry takeRestoredEntry(CredentialKey key, String password, long now) {
+        List<Entry> candidates;
+        synchronized (entries) {
+            if (restoredCount == 0 || !restoredEntries.containsKey(key.getUsername())) {
+                return null;
+            }
+            candidates = new ArrayList<Entry>(restoredEntries.get(key.getUsername()));
+        }
+        for (Entry candidate : candidates) {
+            if (!isServed(candidate, now)) {
+                synchronized (entries) {
+                    removeRestoredEntry(key.getUsername(), candidate);
+                }
+                continue;
+            }
+            // deriving the verifier's hash is slow on purpose, so it is done outside the lock
+            if (!candidate.verifier.matches(password)) {
+                continue;
+            }
+            synchronized (entries) {
+                if (removeRestoredEntry(key.getUsername(), candidate) && !entries.containsKey(key)) {
+                    entries.put(key, candidate);
+                    return candidate;
+                }
+                // taken by a concurrent hit with the same password
+                return entries.get(key);
+            }
+        }
+        return null;
+    }
+
+    private boolean removeRestoredEntry(String username, Entry entry) {
+        List<Entry> userEntries = restoredEntries.get(username);
+        if (userEntries == null || !userEntries.remove(entry)) {
+            return false;
+        }
+        if (userEntries.isEmpty()) {
+            restoredEntries.remove(username);
+        }
+        restoredCount--;
+        return true;
+    }
+
+    public void put(CredentialKey key, Authentication authentication) {
+        Entry entry = new Entry(authentication, System.nanoTime(), System.currentTimeMillis(), timeToLiveNanos, false, null, null);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Caches an authentication together with the password, so it can be saved to a snapshot. Its
+     * {@link PasswordVerifier} is derived only when the snapshot is written (see
+     * {@link Entry#getVerifier()}), as deriving one is slow; the verifier of an entry already cached
+     * under the same key is reused.
+     */
+    void put(CredentialKey key, Authentication authentication, String password) {
+        long createdNanos = System.nanoTime();
+        long createdMillis = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry existing = entries.get(key);
+            PasswordVerifier verifier = existing == null ? null : existing.verifier;
+            entries.put(key, new Entry(authentication, createdNanos, createdMillis, timeToLiveNanos, false, verifier,
+                    verifier == null ? password : null));
+        }
+    }
+
+    /**
+     * Adds an authentication restored from a snapshot, which is considered stale right away so it is
+     * refreshed on first use.
+     * 
+     * @param verifier the verifier of the password the authentication was cached for
+     * @param ageMillis the time since the authentication was cached, in milliseconds
+     * @return <code>false</code> if the authentication is too old to be served or the cache is full
+     */
+    boolean restore(String username, PasswordVerifier verifier, Authentication authentication, long ageMillis) {
+        long ageNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ageMillis));
+        if (ageNanos >= timeToLiveNanos + maxStalenessNanos) {
+            return false;
+        }
+        Entry entry = new Entry(authentication, System.nanoTime() - ageNanos, System.currentTimeMillis() - ageMillis,
+                timeToLiveNanos, true, verifier, null);
+        synchronized (entries) {
+            if (entries.size() + restoredCount >= maxSize) {
+                return false;
+            }
+            List<Entry> userEntries = restoredEntries.get(username);
+            if (userEntries == null) {
+                userEntries = new ArrayList<Entry>(1);
+                restoredEntries.put(username, userEntries);
+            }
+            userEntries.add(entry);
+            restoredCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the entry of these credentials, if it is still the given one.
+     */
+    public void remove(CredentialKey key, Entry entry) {
+        synchronized (entries) {
+            if (entries.get(key) == entry) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return the usernames and entries of a copy of the cached entries, restored ones not hit yet
+     *         first, then the others least recently used first
+     */
+    List<Map.Entry<String, Entry>> entries() {
+        synchronized (entries) {
+            List<Map.Entry<String, Entry>> copy = new ArrayList<Map.Entry<String, Entry>>(entries.size() + restoredCount);
+            for (Map.Entry<String, List<Entry>> userEntries : restoredEntries.entrySet()) {
+                for (Entry entry : userEntries.getValue()) {
+                    copy.add(new AbstractMap.SimpleImmutableEntry<String, Entry>(userEntries.getKey(), entry));
+                }
+            }
+            for (Map.Entry<CredentialKey, Entry> entry : entries.entrySet()) {
+                copy.add(new AbstractMap.SimpleImmutableEntry<String, Entry>(entry.getKey().getUsername(), entry.getValue()));
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Removes all cached authentications of the given user, regardless of password.
+     */
+    public void invalidate(String username) {
+        synchronized (entries) {
+            for (Iterator<CredentialKey> iterator = entries.keySet().iterator(); iterator.hasNext();) {
+                if (iterator.next().getUsername().equals(username)) {
+                    iterator.remove();
+                }
+            }
+            List<Entry> userEntries = restoredEntries.remove(username);
+            if (userEntries != null) {
+                restoredCount -= userEntries.size();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached authentications.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            restoredEntries.clear();
+            restoredCount = 0;
+        }
+    }
+
+    /**
+     * @return the number of cached authentications, including restored ones not hit yet
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size() + restoredCount;
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeToLiveMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeToLiveNanos);
+    }
+
+    public long getMaxStalenessMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxStalenessNanos);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of hits which returned an authentication past its time-to-live
+     */
+    public long getStaleHitCount() {
+        return staleHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * A cached authentication.
+     */
+    public static final class Entry {
+        final Authentication authentication;
+        final long createdNanos;
+        final long createdMillis;
+        final long staleNanos;
+        final boolean restored;
+        volatile PasswordVerifier verifier;
+        // the password until its verifier is derived
+        private volatile String password;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Authentication authentication, long createdNanos, long createdMillis, long timeToLiveNanos, boolean restored,
+                PasswordVerifier verifier, String password) {
+            this.authentication = authentication;
+            this.createdNanos = createdNanos;
+            this.createdMillis = createdMillis;
+            this.staleNanos = createdNanos + timeToLiveNanos;
+            this.restored = restored;
+            this.verifier = verifier;
+            this.password = password;
+        }
+
+        /**
+         * @return the verifier of the password, derived on first call; <code>null</code> if the
+         *         entry was cached without one
+         */
+        synchronized PasswordVerifier getVerifier() {
+            if (verifier == null && password != null) {
+                verifier = PasswordVerifier.create(password);
+                password = null;
+            }
+            return verifier;
+        }
+
+        public Authentication getAuthentication() {
+            return authentication;
+        }
+
+        /**
+         * @return <code>true</code> if the time-to-live has passed or the entry was restored from a snapshot
+         */
+        public boolean isStale() {
+            return restored || System.nanoTime() - staleNanos >= 0;
+        }
+
+        /**
+         * @return <code>true</code> if the entry was restored from a snapshot, in which case the user
+         *         details of its authentication carry no password
+         */
+        public boolean isRestored() {
+            return restored;
+        }
+
+        /**
+         * @return the wall clock time the authentication was cached at
+         */
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        /**
+         * Claims the refresh of a stale entry, so concurrent hits refresh it only once.
+         * 
+         * @return <code>false</code> if a refresh is already in progress
+         */
+        public boolean startRefresh() {
+            return refreshing.compareAndSet(false, true);
+        }
+
+        /**
+         * Allows another refresh after a refresh failed to replace the entry.
+         */
+        public void refreshFailed() {
+            refreshing.set(false);
+        }
+    }
+}
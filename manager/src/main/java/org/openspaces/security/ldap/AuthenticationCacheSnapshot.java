@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.gigaspaces.security.Authority;
+import com.gigaspaces.security.AuthorityFactory;
+import com.gigaspaces.security.directory.User;
+
+/**
+ * Persists the {@link AuthenticationCache} across restarts, so a restarted security manager serves
+ * recent logins without waiting for Active Directory. The snapshot holds, per entry, the username,
+ * the {@link PasswordVerifier} of the password, the time it was cached and the authority strings;
+ * neither passwords nor the {@link CredentialDigester}'s fast digests, which would be cheap to
+ * brute force offline. The verifiers are derived while the snapshot is written, and entries
+ * cached without a password are not saved. It is written on close to a temporary file which then
+ * replaces the snapshot, readable by the owner only, and read on start into a heap buffer with a
+ * single pass over the file; it is not memory-mapped, as a mapping would keep the file from being
+ * replaced on Windows until it is garbage collected.
+ * <p>
+ * Restored authentications are only found once a login's password matches their verifier, which
+ * moves them under the login's digest. They are stale right away, so each is revalidated in the
+ * background on first use.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+final class AuthenticationCacheSnapshot {
+
+    private static final int MAGIC = 0x4f534c43;
+    private static final int VERSION = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private AuthenticationCacheSnapshot() {
+    }
+
+    /**
+     * @return the number of entries written
+     */
+    static int write(File file, AuthenticationCache cache) throws IOException {
+        List<Map.Entry<String, AuthenticationCache.Entry>> entries = new ArrayList<Map.Entry<String, AuthenticationCache.Entry>>();
+        for (Map.Entry<String, AuthenticationCache.Entry> entry : cache.entries()) {
+            // derives the verifiers of entries cached with a password
+            if (entry.getValue().getVerifier() != null) {
+                entries.add(entry);
+            }
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory " + directory);
+        }
+        File temporary = createOwnerOnly(new File(file.getPath() + ".tmp"));
+        FileOutputStream stream = new FileOutputStream(temporary);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, AuthenticationCache.Entry> entry : entries) {
+                PasswordVerifier verifier = entry.getValue().getVerifier();
+                writeBytes(output, entry.getKey().getBytes(UTF8));
+                writeBytes(output, verifier.getSalt());
+                output.writeInt(verifier.getIterations());
+                writeBytes(output, verifier.getHash());
+                output.writeLong(entry.getValue().getCreatedMillis());
+                Authority[] authorities = entry.getValue().getAuthentication().getUserDetails().getAuthorities();
+                output.writeInt(authorities.length);
+                for (Authority authority : authorities) {
+                    writeBytes(output, authority.getAuthority().getBytes(UTF8));
+                }
+            }
+            output.flush();
+            stream.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file)) {
+            // renaming does not replace an existing file on all platforms
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+                throw new IOException("Failed to replace " + file);
+            }
+        }
+        return entries.size();
+    }
+
+    /**
+     * Creates an empty file accessible by its owner only, before anything is written to it.
+     * 
+     * @throws IOException if the permissions cannot be restricted, e.g. on file systems without
+     *             owner permissions
+     */
+    private static File createOwnerOnly(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+        if (!file.createNewFile()) {
+            throw new IOException("Failed to create " + file + "; it was created concurrently");
+        }
+        if (!(file.setReadable(false, false) && file.setReadable(true, true) && file.setWritable(false, false)
+                && file.setWritable(true, true) && file.setExecutable(false, false))) {
+            file.delete();
+            throw new IOException("Failed to restrict the permissions of " + file + " to its owner");
+        }
+        return file;
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a snapshot into the cache, skipping entries too old to be served.
+     * 
+     * @return the number of entries restored
+     * @throws IOException if the file is not a valid snapshot
+     */
+    static int read(File file, AuthenticationCache cache) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Authentication cache snapshot " + file + " is too large: " + size + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not an authentication cache snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of authentication cache snapshot " + file);
+            }
+            int count = buffer.getInt();
+            int restored = 0;
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                String username = new String(readBytes(buffer), UTF8);
+                byte[] salt = readBytes(buffer);
+                int iterations = buffer.getInt();
+                if (iterations <= 0) {
+                    throw new IOException("Corrupt authentication cache snapshot " + file);
+                }
+                PasswordVerifier verifier = new PasswordVerifier(salt, iterations, readBytes(buffer));
+                long createdMillis = buffer.getLong();
+                Authority[] authorities = new Authority[buffer.getInt()];
+                for (int j = 0; j < authorities.length; j++) {
+                    authorities[j] = AuthorityFactory.create(new String(readBytes(buffer), UTF8));
+                }
+                if (cache.restore(username, verifier, new ActiveDirectoryAuthentication(new User(username, null, authorities),
+                        new PrivilegeGrantedAuthorities(authorities)), now - createdMillis)) {
+                    restored++;
+                }
+            }
+            return restored;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated authentication cache snapshot " + file);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Illegal authority in authentication cache snapshot " + file + ": " + e.getMessage());
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Corrupt authentication cache snapshot");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
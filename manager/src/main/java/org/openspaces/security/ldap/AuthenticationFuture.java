@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.gigaspaces.security.Authentication;
+
+/**
+ * The result of an asynchronous authentication, which expires at an optional deadline. An
+ * authentication still queued when its deadline passes is skipped; waiting in {@link #get()} ends
+ * at the deadline by cancelling the authentication and interrupting the thread running it. A
+ * cancelled authentication is removed from the executor's queue so it does not take up capacity.
+ * The outcome and latency of every authentication are recorded in the {@link AuthenticationMetrics},
+ * and in the {@link AuthenticationAuditLog} if one is configured.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class AuthenticationFuture extends FutureTask<Authentication> {
+
+    private final long startTime;
+    private final long deadline;
+    private final AuthenticationMetrics metrics;
+    private final String username;
+    private final AuthenticationAuditLog auditLog;
+    private volatile ThreadPoolExecutor executor;
+    private final AtomicBoolean outcomeClaimed = new AtomicBoolean();
+
+    /**
+     * @param startTime the {@link System#nanoTime()} the authentication was requested at
+     * @param deadline the {@link System#nanoTime()} the authentication expires at, <code>0</code> for none
+     * @param auditLog the log to record the authentication of the given user in, or <code>null</code>
+     */
+    AuthenticationFuture(Callable<Authentication> authentication, long startTime, long deadline, AuthenticationMetrics metrics,
+            String username, AuthenticationAuditLog auditLog) {
+        super(authentication);
+        this.startTime = startTime;
+        this.deadline = deadline;
+        this.metrics = metrics;
+        this.username = username;
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Queues the authentication, or fails it right away with a {@link RejectedExecutionException} if
+     * the executor is saturated.
+     */
+    void submit(ThreadPoolExecutor executor) {
+        this.executor = executor;
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            setException(e);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (isExpired()) {
+            cancel(false);
+            return;
+        }
+        super.run();
+    }
+
+    /**
+     * Waits for the authentication until its deadline, if any.
+     * 
+     * @throws CancellationException if the authentication was cancelled or has expired, see {@link #isExpired()}
+     */
+    @Override
+    public Authentication get() throws InterruptedException, ExecutionException {
+        if (deadline == 0) {
+            return super.get();
+        }
+        try {
+            return super.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (!cancel(true)) {
+                // completed at the deadline; its outcome is the one recorded
+                return super.get();
+            }
+            throw new CancellationException("Authentication did not complete within its deadline");
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the deadline has passed
+     */
+    public boolean isExpired() {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean expired = isExpired();
+        if (!outcomeClaimed.compareAndSet(false, true) || !super.cancel(mayInterruptIfRunning)) {
+            return false;
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        if (expired) {
+            metrics.recordTimeout(elapsedNanos);
+        } else {
+            metrics.recordCancellation(elapsedNanos);
+        }
+        if (auditLog != null) {
+            auditLog.record(username, null, expired ? TimeoutException.class : CancellationException.class, elapsedNanos);
+        }
+        ThreadPoolExecutor queuedOn = executor;
+        if (queuedOn != null) {
+            queuedOn.remove(this);
+        }
+        return true;
+    }
+
+    @Override
+    protected void set(Authentication authentication) {
+        if (outcomeClaimed.compareAndSet(false, true)) {
+            record(authentication, null);
+            super.set(authentication);
+        }
+    }
+
+    @Override
+    protected void setException(Throwable exception) {
+        if (outcomeClaimed.compareAndSet(false, true)) {
+            record(null, exception instanceof Exception ? (Exception) exception : new ExecutionException(exception));
+            super.setException(exception);
+        }
+    }
+
+    /**
+     * Records the result or failure, before it becomes visible to callers waiting for it; a
+     * cancellation is recorded by {@link #cancel(boolean)} right after it took effect. Cancelling,
+     * setting the result and setting the failure first claim the outcome, and only the one which
+     * claimed it completes the future, so the recorded outcome is the one callers see.
+     */
+    private void record(Authentication authentication, Exception failure) {
+        long elapsedNanos = System.nanoTime() - startTime;
+        if (failure == null) {
+            metrics.recordSuccess(elapsedNanos);
+        } else {
+            metrics.recordFailure(failure, elapsedNanos);
+        }
+        if (auditLog != null) {
+            auditLog.record(username, authentication, failure != null ? failure.getClass() : null, elapsedNanos);
+        }
+    }
+}
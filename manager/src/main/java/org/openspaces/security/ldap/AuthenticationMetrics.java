@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.CommunicationException;
+import javax.naming.ServiceUnavailableException;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+
+/**
+ * Counters and latency histograms of the authentication hot path, exposed over JMX by
+ * {@link ActiveDirectorySpringSecurityManager}. Recording is lock-free and does not allocate, so it
+ * is always on.
+ * <p>
+ * Three latencies are tracked: the total time of
+ * {@link ActiveDirectorySpringSecurityManager#authenticate(com.gigaspaces.security.directory.UserDetails)}
+ * (including cache hits and coalesced calls), the time spent in the Spring
+ * {@link org.springframework.security.authentication.AuthenticationManager} (the LDAP bind and group
+ * search) and the time spent mapping groups to authorities.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class AuthenticationMetrics implements AuthenticationMetricsMBean {
+
+    private final SingleFlight<?, ?> inFlightAuthentications;
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong badCredentials = new AtomicLong();
+    private final AtomicLong noMappedAuthority = new AtomicLong();
+    private final AtomicLong transportFailures = new AtomicLong();
+    private final AtomicLong limitedFailures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong cancellations = new AtomicLong();
+    private final AtomicLong otherFailures = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong failedCacheHits = new AtomicLong();
+
+    private final LatencyHistogram authenticationTime = new LatencyHistogram();
+    private final LatencyHistogram bindTime = new LatencyHistogram();
+    private final LatencyHistogram groupMappingTime = new LatencyHistogram();
+
+    /**
+     * @param inFlightAuthentications source of the number of coalesced authentications, may be <code>null</code>
+     */
+    public AuthenticationMetrics(SingleFlight<?, ?> inFlightAuthentications) {
+        this.inFlightAuthentications = inFlightAuthentications;
+    }
+
+    public void recordSuccess(long elapsedNanos) {
+        successes.incrementAndGet();
+        authenticationTime.record(elapsedNanos);
+    }
+
+    /**
+     * Counts a failed authentication by the cause of the given exception.
+     */
+    public void recordFailure(Exception exception, long elapsedNanos) {
+        if (isCausedBy(exception, BadCredentialsException.class)) {
+            badCredentials.incrementAndGet();
+        } else if (isCausedBy(exception, TooManyFailedAttemptsException.class)) {
+            limitedFailures.incrementAndGet();
+        } else if (isCausedBy(exception, NoMappedAuthorityException.class)) {
+            noMappedAuthority.incrementAndGet();
+        } else if (isCausedBy(exception, AuthenticationServiceException.class)
+                || isCausedBy(exception, CommunicationException.class)
+                || isCausedBy(exception, ServiceUnavailableException.class)) {
+            transportFailures.incrementAndGet();
+        } else if (exception instanceof TimeoutException) {
+            timeouts.incrementAndGet();
+        } else if (exception instanceof RejectedExecutionException) {
+            rejections.incrementAndGet();
+        } else if (exception instanceof CancellationException) {
+            cancellations.incrementAndGet();
+        } else {
+            otherFailures.incrementAndGet();
+        }
+        authenticationTime.record(elapsedNanos);
+    }
+
+    /**
+     * Counts an authentication which did not complete within its deadline.
+     */
+    public void recordTimeout(long elapsedNanos) {
+        timeouts.incrementAndGet();
+        authenticationTime.record(elapsedNanos);
+    }
+
+    /**
+     * Counts an authentication which was cancelled by its caller.
+     */
+    public void recordCancellation(long elapsedNanos) {
+        cancellations.incrementAndGet();
+        authenticationTime.record(elapsedNanos);
+    }
+
+    private static boolean isCausedBy(Throwable exception, Class<? extends Throwable> type) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    /**
+     * Counts credentials rejected because they recently failed to authenticate; the rejection itself
+     * is counted as bad credentials.
+     */
+    public void recordFailedCacheHit() {
+        failedCacheHits.incrementAndGet();
+    }
+
+    public void recordBind(long elapsedNanos) {
+        bindTime.record(elapsedNanos);
+    }
+
+    public void recordGroupMapping(long elapsedNanos) {
+        groupMappingTime.record(elapsedNanos);
+    }
+
+    public long getAuthenticationCount() {
+        return getSuccessCount() + getFailureCount();
+    }
+
+    public long getSuccessCount() {
+        return successes.get();
+    }
+
+    public long getFailureCount() {
+        return badCredentials.get() + limitedFailures.get() + noMappedAuthority.get() + transportFailures.get() + timeouts.get() + rejections.get()
+                + cancellations.get() + otherFailures.get();
+    }
+
+    public long getBadCredentialsCount() {
+        return badCredentials.get();
+    }
+
+    public long getTooManyFailedAttemptsCount() {
+        return limitedFailures.get();
+    }
+
+    public long getNoMappedAuthorityCount() {
+        return noMappedAuthority.get();
+    }
+
+    public long getTransportFailureCount() {
+        return transportFailures.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getRejectedCount() {
+        return rejections.get();
+    }
+
+    public long getCancelledCount() {
+        return cancellations.get();
+    }
+
+    public long getOtherFailureCount() {
+        return otherFailures.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMissCount() {
+        return cacheMisses.get();
+    }
+
+    public long getFailedCacheHitCount() {
+        return failedCacheHits.get();
+    }
+
+    public long getCoalescedCount() {
+        return inFlightAuthentications == null ? 0 : inFlightAuthentications.getCoalescedCount();
+    }
+
+    public double getAuthenticationTimeMean() {
+        return millis(authenticationTime.getMeanMicros());
+    }
+
+    public double getAuthenticationTime50thPercentile() {
+        return millis(authenticationTime.getPercentileMicros(50));
+    }
+
+    public double getAuthenticationTime99thPercentile() {
+        return millis(authenticationTime.getPercentileMicros(99));
+    }
+
+    public double getAuthenticationTime999thPercentile() {
+        return millis(authenticationTime.getPercentileMicros(99.9));
+    }
+
+    public double getAuthenticationTimeMax() {
+        return millis(authenticationTime.getMaxMicros());
+    }
+
+    public long getBindCount() {
+        return bindTime.getCount();
+    }
+
+    public double getBindTimeMean() {
+        return millis(bindTime.getMeanMicros());
+    }
+
+    public double getBindTime50thPercentile() {
+        return millis(bindTime.getPercentileMicros(50));
+    }
+
+    public double getBindTime99thPercentile() {
+        return millis(bindTime.getPercentileMicros(99));
+    }
+
+    public double getBindTimeMax() {
+        return millis(bindTime.getMaxMicros());
+    }
+
+    public long getGroupMappingCount() {
+        return groupMappingTime.getCount();
+    }
+
+    public double getGroupMappingTimeMean() {
+        return millis(groupMappingTime.getMeanMicros());
+    }
+
+    public double getGroupMappingTime50thPercentile() {
+        return millis(groupMappingTime.getPercentileMicros(50));
+    }
+
+    public double getGroupMappingTime99thPercentile() {
+        return millis(groupMappingTime.getPercentileMicros(99));
+    }
+
+    public double getGroupMappingTimeMax() {
+        return millis(groupMappingTime.getMaxMicros());
+    }
+
+    public LatencyHistogram getAuthenticationTime() {
+        return authenticationTime;
+    }
+
+    public LatencyHistogram getBindTime() {
+        return bindTime;
+    }
+
+    public LatencyHistogram getGroupMappingTime() {
+        return groupMappingTime;
+    }
+
+    private static double millis(double micros) {
+        return micros / 1000;
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+/**
+ * JMX management interface of {@link AuthenticationMetrics}. Latencies are in milliseconds.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public interface AuthenticationMetricsMBean {
+
+    long getAuthenticationCount();
+
+    long getSuccessCount();
+
+    long getFailureCount();
+
+    long getBadCredentialsCount();
+
+    long getTooManyFailedAttemptsCount();
+
+    long getNoMappedAuthorityCount();
+
+    long getTransportFailureCount();
+
+    long getTimeoutCount();
+
+    long getRejectedCount();
+
+    long getCancelledCount();
+
+    long getOtherFailureCount();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    long getFailedCacheHitCount();
+
+    long getCoalescedCount();
+
+    double getAuthenticationTimeMean();
+
+    double getAuthenticationTime50thPercentile();
+
+    double getAuthenticationTime99thPercentile();
+
+    double getAuthenticationTime999thPercentile();
+
+    double getAuthenticationTimeMax();
+
+    long getBindCount();
+
+    double getBindTimeMean();
+
+    double getBindTime50thPercentile();
+
+    double getBindTime99thPercentile();
+
+    double getBindTimeMax();
+
+    long getGroupMappingCount();
+
+    double getGroupMappingTimeMean();
+
+    double getGroupMappingTime50thPercentile();
+
+    double getGroupMappingTime99thPercentile();
+
+    double getGroupMappingTimeMax();
+}
@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import com.gigaspaces.security.Authority;
+import com.gigaspaces.security.SecurityException;
+
+/**
+ * An immutable, pre-parsed form of the {@link ActiveDirectoryGroupMapper} group map: each group
+ * name is mapped to the {@link Authority} instances its comma separated value describes. Created
+ * once by {@link GroupMapperAuthorityFactory#compile(Map)} so that authentication only performs
+ * lookups.
+ * <p>
+ * Users typically share a small number of distinct group combinations, so the resolved authorities
+ * are memoized by the set of mapped groups a user belongs to (the group signature). Users with the
+ * same signature share one de-duplicated {@link Authority} array, and one
+ * {@link PrivilegeGrantedAuthorities} whose privilege checks are precomputed.
+ * <p>
+ * Keys which are pattern rules (wildcards, <code>regex:</code> or <code>dn:</code>, see
+ * {@link GroupRuleMatcher}) are compiled into a {@link GroupRuleMatcher}. The rules a group matches
+ * are memoized per group, so after the first login of a member resolving a group is a single lookup
+ * regardless of the number of rules.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public final class CompiledGroupMap {
+
+    /** Upper bound on memoized group signatures; further combinations are resolved but not kept */
+    static final int MAX_MEMOIZED_SIGNATURES = 4096;
+
+    /** Upper bound on groups whose matching pattern rules are memoized, per name and per DN */
+    static final int MAX_MEMOIZED_GROUPS = 65536;
+
+    private static final Authority[] NO_AUTHORITIES = new Authority[0];
+    private static final PrivilegeGrantedAuthorities NOT_GRANTED = new PrivilegeGrantedAuthorities(NO_AUTHORITIES);
+    private static final int[] NO_MATCHES = new int[0];
+
+    private final Map<String, Integer> groupIndexes;
+    private final Authority[][] authoritiesByIndex;
+    private final ConcurrentMap<BitSet, PrivilegeGrantedAuthorities> resolved = new ConcurrentHashMap<BitSet, PrivilegeGrantedAuthorities>();
+    private final GroupRuleMatcher patterns;
+    private final ConcurrentMap<String, int[]> matchesByName;
+    private final ConcurrentMap<String, int[]> matchesByDn;
+
+    /**
+     * @param authorities group name or pattern rule to authorities, iteration order determines the
+     *            order of resolved authorities
+     * @throws SecurityException if a pattern rule can't be parsed
+     */
+    CompiledGroupMap(Map<String, Authority[]> authorities) throws SecurityException {
+        this.groupIndexes = new HashMap<String, Integer>(authorities.size() * 2);
+        this.authoritiesByIndex = new Authority[authorities.size()][];
+        Map<String, Authority> canonical = new HashMap<String, Authority>();
+        GroupRuleMatcher matcher = new GroupRuleMatcher();
+        int index = 0;
+        for (Map.Entry<String, Authority[]> entry : authorities.entrySet()) {
+            if (GroupRuleMatcher.isPattern(entry.getKey())) {
+                matcher.add(entry.getKey(), index);
+            } else {
+                groupIndexes.put(entry.getKey(), index);
+            }
+            authoritiesByIndex[index++] = deduplicate(entry.getValue(), canonical);
+        }
+        if (matcher.size() > 0) {
+            this.patterns = matcher;
+            this.matchesByName = new ConcurrentHashMap<String, int[]>();
+            this.matchesByDn = new ConcurrentHashMap<String, int[]>();
+        } else {
+            this.patterns = null;
+            this.matchesByName = null;
+            this.matchesByDn = null;
+        }
+    }
+
+    /**
+     * Resolves the authorities of the given granted authorities (memberOf). The result contains no
+     * two authorities with the same {@link Authority#getAuthority()} value, and is shared between all
+     * callers with the same mapped groups - it must not be modified. DN rules match granted
+     * authorities which are {@link ActiveDirectoryGroupAuthority} instances.
+     * 
+     * @param hierarchy nested group membership, or <code>null</code> to map direct membership only
+     */
+    Authority[] resolve(Collection<? extends GrantedAuthority> grantedAuthorities, GroupHierarchy hierarchy) {
+        return resolveGrantedAuthorities(grantedAuthorities, hierarchy).getAuthorities();
+    }
+
+    /**
+     * Same as {@link #resolve(Collection, GroupHierarchy)}, returning the resolved authorities along
+     * with their precomputed privileges. The result is shared between all callers with the same
+     * mapped groups.
+     */
+    PrivilegeGrantedAuthorities resolveGrantedAuthorities(Collection<? extends GrantedAuthority> grantedAuthorities, GroupHierarchy hierarchy) {
+        BitSet signature = null;
+        for (GrantedAuthority grantedAuthority : grantedAuthorities) {
+            String group = grantedAuthority.getAuthority().trim();
+            String dn = grantedAuthority instanceof ActiveDirectoryGroupAuthority ? ((ActiveDirectoryGroupAuthority) grantedAuthority).getDn() : null;
+            signature = addToSignature(signature, group, dn);
+            if (hierarchy != null) {
+                String[] ancestors = hierarchy.getMappedAncestors(group);
+                if (ancestors != null) {
+                    for (String ancestor : ancestors) {
+                        signature = addToSignature(signature, ancestor, null);
+                    }
+                }
+            }
+        }
+        if (signature == null) {
+            return NOT_GRANTED;
+        }
+        PrivilegeGrantedAuthorities authorities = resolved.get(signature);
+        if (authorities == null) {
+            authorities = new PrivilegeGrantedAuthorities(merge(signature));
+            if (resolved.size() < MAX_MEMOIZED_SIGNATURES) {
+                PrivilegeGrantedAuthorities existing = resolved.putIfAbsent(signature, authorities);
+                if (existing != null) {
+                    authorities = existing;
+                }
+            }
+        }
+        return authorities;
+    }
+
+    /**
+     * Names the groups the given granted authorities are mapped by: the groups which are keys of the
+     * group map or match one of its pattern rules, and their mapped ancestors. Unlike
+     * {@link #resolve(Collection, GroupHierarchy)} the result is not memoized, it is meant for
+     * auditing rather than for every authentication.
+     * 
+     * @param hierarchy nested group membership, or <code>null</code> to map direct membership only
+     * @return the mapped group names in the order of the granted authorities, without duplicates
+     */
+    String[] getMappedGroups(Collection<? extends GrantedAuthority> grantedAuthorities, GroupHierarchy hierarchy) {
+        Set<String> mapped = new LinkedHashSet<String>();
+        for (GrantedAuthority grantedAuthority : grantedAuthorities) {
+            String group = grantedAuthority.getAuthority().trim();
+            String dn = grantedAuthority instanceof ActiveDirectoryGroupAuthority ? ((ActiveDirectoryGroupAuthority) grantedAuthority).getDn() : null;
+            if (groupIndexes.containsKey(group) || (patterns != null && matchPatterns(group, dn).length > 0)) {
+                mapped.add(group);
+            }
+            if (hierarchy != null) {
+                String[] ancestors = hierarchy.getMappedAncestors(group);
+                if (ancestors != null) {
+                    Collections.addAll(mapped, ancestors);
+                }
+            }
+        }
+        return mapped.toArray(new String[mapped.size()]);
+    }
+
+    private BitSet addToSignature(BitSet signature, String group, String dn) {
+        Integer index = groupIndexes.get(group);
+        if (index != null) {
+            if (signature == null) {
+                signature = new BitSet(authoritiesByIndex.length);
+            }
+            signature.set(index);
+        }
+        if (patterns != null) {
+            int[] matches = matchPatterns(group, dn);
+            if (matches.length > 0 && signature == null) {
+                signature = new BitSet(authoritiesByIndex.length);
+            }
+            for (int match : matches) {
+                signature.set(match);
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * @param dn the group's DN, or <code>null</code> to match by name only
+     * @return the indexes of the pattern rules the group matches, memoized by DN or name
+     */
+    private int[] matchPatterns(String group, String dn) {
+        ConcurrentMap<String, int[]> memo = dn != null ? matchesByDn : matchesByName;
+        String key = dn != null ? dn : group;
+        int[] matches = memo.get(key);
+        if (matches == null) {
+            LdapName name = null;
+            if (dn != null) {
+                try {
+                    name = new LdapName(dn);
+                } catch (InvalidNameException e) {
+                    // DN rules can't match
+                }
+            }
+            BitSet matched = new BitSet(authoritiesByIndex.length);
+            patterns.match(group, name, matched);
+            matches = matched.isEmpty() ? NO_MATCHES : new int[matched.cardinality()];
+            for (int i = matched.nextSetBit(0), j = 0; i >= 0; i = matched.nextSetBit(i + 1)) {
+                matches[j++] = i;
+            }
+            if (memo.size() < MAX_MEMOIZED_GROUPS) {
+                memo.putIfAbsent(key, matches);
+            }
+        }
+        return matches;
+    }
+
+    private Authority[] merge(BitSet signature) {
+        if (signature.cardinality() == 1) {
+            return authoritiesByIndex[signature.nextSetBit(0)];
+        }
+        Map<String, Authority> merged = new LinkedHashMap<String, Authority>();
+        for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+            for (Authority authority : authoritiesByIndex[i]) {
+                if (!merged.containsKey(authority.getAuthority())) {
+                    merged.put(authority.getAuthority(), authority);
+                }
+            }
+        }
+        return merged.values().toArray(new Authority[merged.size()]);
+    }
+
+    /**
+     * Removes duplicates within a group's authorities and replaces equal authorities of different
+     * groups with a single shared instance.
+     */
+    private static Authority[] deduplicate(Authority[] authorities, Map<String, Authority> canonical) {
+        Map<String, Authority> unique = new LinkedHashMap<String, Authority>();
+        for (Authority authority : authorities) {
+            String key = authority.getAuthority();
+            Authority shared = canonical.get(key);
+            if (shared == null) {
+                shared = authority;
+                canonical.put(key, shared);
+            }
+            unique.put(key, shared);
+        }
+        return unique.values().toArray(new Authority[unique.size()]);
+    }
+
+    /**
+     * @return whether the group name is a key of the group map or matches one of its wildcard or
+     *         regular expression rules
+     */
+    public boolean isMapped(String group) {
+        return groupIndexes.containsKey(group) || (patterns != null && matchPatterns(group, null).length > 0);
+    }
+
+    /**
+     * @return whether the group map has pattern rules
+     */
+    public boolean hasPatterns() {
+        return patterns != null;
+    }
+
+    /**
+     * @return the group names of the group map, excluding pattern rules
+     */
+    public Set<String> getGroups() {
+        return Collections.unmodifiableSet(groupIndexes.keySet());
+    }
+
+    public int size() {
+        return authoritiesByIndex.length;
+    }
+
+    /**
+     * @return the number of distinct group signatures currently memoized
+     */
+    public int getMemoizedSignatureCount() {
+        return resolved.size();
+    }
+
+    /**
+     * @return the number of groups whose matching pattern rules are currently memoized
+     */
+    public int getMemoizedGroupCount() {
+        return patterns == null ? 0 : matchesByName.size() + matchesByDn.size();
+    }
+}
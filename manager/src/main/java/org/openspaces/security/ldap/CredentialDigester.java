@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import com.gigaspaces.security.SecurityException;
+
+/**
+ * Computes {@link CredentialKey}s - a username together with a salted SHA-256 digest of the
+ * password - so credentials can be used as lookup keys without keeping the plaintext password
+ * around. The salt is generated once per instance, so digests are only comparable within the
+ * same digester.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class CredentialDigester {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int SALT_LENGTH = 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[] salt;
+
+    private final ThreadLocal<MessageDigest> messageDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new SecurityException("Message digest algorithm " + DIGEST_ALGORITHM + " is not available", e);
+            }
+        }
+    };
+
+    public CredentialDigester() {
+        this(newSalt());
+    }
+
+    public CredentialDigester(byte[] salt) {
+        this.salt = salt.clone();
+    }
+
+    /**
+     * @return a key identifying the given credentials; never holds the password itself
+     */
+    public CredentialKey digest(String username, String password) {
+        MessageDigest md = messageDigest.get();
+        md.reset();
+        md.update(salt);
+        md.update(username.getBytes(UTF8));
+        md.update((byte) 0);
+        if (password != null) {
+            md.update(password.getBytes(UTF8));
+        }
+        return new CredentialKey(username, md.digest());
+    }
+
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    private static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+}
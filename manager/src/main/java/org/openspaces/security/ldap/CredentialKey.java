@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.Arrays;
+
+/**
+ * An immutable username and salted password digest pair, created by {@link CredentialDigester}.
+ * Two keys are equal only if both the username and the digest are equal.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public final class CredentialKey {
+
+    private final String username;
+    private final byte[] digest;
+    private final int hashCode;
+
+    CredentialKey(String username, byte[] digest) {
+        this.username = username;
+        this.digest = digest;
+        this.hashCode = 31 * username.hashCode() + Arrays.hashCode(digest);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return a copy of the salted password digest
+     */
+    public byte[] getDigest() {
+        return digest.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CredentialKey)) {
+            return false;
+        }
+        CredentialKey other = (CredentialKey) obj;
+        return hashCode == other.hashCode && username.equals(other.username) && Arrays.equals(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialKey[" + username + "]";
+    }
+}
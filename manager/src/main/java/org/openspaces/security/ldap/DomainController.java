@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * The connection pool and health state of a single domain controller, used by
+ * {@link PooledActiveDirectoryLdapAuthenticationProvider}.
+ * <p>
+ * Idle connections are kept in a bounded queue; a connection which is returned while the queue is
+ * full, or which has been idle for too long, is closed. The number of open connections, idle or in
+ * use, is bounded as well: once reached, a bind waits for a connection to be returned or closed.
+ * The observed latency and the backoff after connection failures are tracked by an
+ * {@link EndpointHealth}.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+class DomainController {
+
+    /** How long a bind waiting for a connection sleeps before checking whether one was closed */
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String url;
+    private final BlockingQueue<PooledConnection> idle;
+    private final int maxConnections;
+    private final Semaphore connectionPermits;
+    private final long maxIdleNanos;
+    private final EndpointHealth health;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+
+    DomainController(String url, int maxConnections, int maxIdleConnections, long maxIdleMillis, long initialBackoffMillis,
+            long maxBackoffMillis) {
+        this.url = url;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.connectionPermits = new Semaphore(this.maxConnections);
+        this.idle = new ArrayBlockingQueue<PooledConnection>(Math.max(1, Math.min(maxIdleConnections, maxConnections)));
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+        this.health = new EndpointHealth(initialBackoffMillis, maxBackoffMillis);
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return an idle connection, or <code>null</code> if there is none
+     */
+    LdapContext pollIdle() {
+        long now = System.nanoTime();
+        PooledConnection connection;
+        while ((connection = idle.poll()) != null) {
+            if (now - connection.releasedNanos < maxIdleNanos) {
+                return connection.context;
+            }
+            discard(connection.context);
+        }
+        return null;
+    }
+
+    /**
+     * Takes an idle connection, or reserves the opening of a new one, waiting for a connection to be
+     * returned or closed while the maximum number of connections is open.
+     * 
+     * @return an idle connection, or <code>null</code> if the caller may open a new one, in which case
+     *         it has to pass it to {@link #release(LdapContext)} or {@link #discard(LdapContext)}, or
+     *         call {@link #connectionFailed()} if opening it failed
+     * @throws ConnectionLimitException if no connection became available within the timeout
+     */
+    LdapContext acquire(long timeoutMillis) throws ConnectionLimitException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (;;) {
+            LdapContext context = pollIdle();
+            if (context != null) {
+                return context;
+            }
+            if (connectionPermits.tryAcquire()) {
+                return null;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new ConnectionLimitException("All connections to " + url + " are in use");
+            }
+            try {
+                // a permit is freed by a closed connection, which does not signal the idle queue
+                PooledConnection connection = idle.poll(Math.min(remaining, IDLE_POLL_NANOS), TimeUnit.NANOSECONDS);
+                if (connection != null) {
+                    if (System.nanoTime() - connection.releasedNanos < maxIdleNanos) {
+                        return connection.context;
+                    }
+                    discard(connection.context);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionLimitException("Interrupted while waiting for a connection to " + url);
+            }
+        }
+    }
+
+    /**
+     * Reserves the opening of a new connection without waiting.
+     * 
+     * @return <code>false</code> if the maximum number of connections is open
+     */
+    boolean tryReserve() {
+        return connectionPermits.tryAcquire();
+    }
+
+    /**
+     * Frees the reservation of a connection which could not be opened.
+     */
+    void connectionFailed() {
+        connectionPermits.release();
+    }
+
+    /**
+     * Returns a healthy connection to the pool, or closes it if the pool is full.
+     */
+    void release(LdapContext context) {
+        if (!idle.offer(new PooledConnection(context, System.nanoTime()))) {
+            discard(context);
+        }
+    }
+
+    /**
+     * Closes a connection taken from or reserved with this controller.
+     */
+    void discard(LdapContext context) {
+        close(context);
+        connectionPermits.release();
+    }
+
+    void connectionCreated() {
+        connectionsCreated.incrementAndGet();
+    }
+
+    void recordSuccess(long elapsedNanos) {
+        requests.incrementAndGet();
+        health.recordResponse(elapsedNanos);
+    }
+
+    /**
+     * Marks this controller as unavailable for a backoff period and drops its idle connections,
+     * which are most likely broken as well.
+     */
+    void recordFailure() {
+        requests.incrementAndGet();
+        failures.incrementAndGet();
+        health.recordFailure();
+        closeIdle();
+    }
+
+    boolean isAvailable(long nowNanos) {
+        return health.isAvailable(nowNanos);
+    }
+
+    long getRetryAtNanos() {
+        return health.getRetryAtNanos();
+    }
+
+    long getLatencyNanos() {
+        return health.getLatencyNanos();
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getFailureCount() {
+        return failures.get();
+    }
+
+    long getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    int getOpenCount() {
+        return maxConnections - connectionPermits.availablePermits();
+    }
+
+    void closeIdle() {
+        PooledConnection connection;
+        while ((connection = idle.poll()) != null) {
+            discard(connection.context);
+        }
+    }
+
+    static void close(LdapContext context) {
+        try {
+            context.close();
+        } catch (NamingException e) {
+            // ignore, the connection is discarded anyway
+        }
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+
+    /**
+     * Thrown when no connection to a domain controller became available in time; the domain
+     * controller is busy rather than failed.
+     */
+    static final class ConnectionLimitException extends NamingException {
+
+        private static final long serialVersionUID = 1L;
+
+        ConnectionLimitException(String explanation) {
+            super(explanation);
+        }
+    }
+
+    private static final class PooledConnection {
+        final LdapContext context;
+        final long releasedNanos;
+
+        PooledConnection(LdapContext context, long releasedNanos) {
+            this.context = context;
+            this.releasedNanos = releasedNanos;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+
+import com.gigaspaces.security.Authentication;
+import com.gigaspaces.security.SecurityException;
+
+/**
+ * Routes authentications to the {@link ActiveDirectoryDomain} a username belongs to:
+ * <ul>
+ * <li><code>user@suffix</code> to the domain with that UPN suffix, passing the username as is;</li>
+ * <li><code>NETBIOS&#92;user</code> to the domain with that NetBIOS name, passing <code>user</code>;</li>
+ * <li>any other username, including an unknown UPN suffix, to the domain the user last
+ * authenticated with, or else to all available domains in parallel. When the domain the user last
+ * authenticated with is unavailable, the other domains are tried in parallel.</li>
+ * </ul>
+ * A parallel authentication completes with the first domain which authenticates the user, and
+ * cancels the attempts which have not started yet. Attempts already binding are left to complete in
+ * the background: interrupting a bind could discard a healthy pooled connection. If no domain
+ * authenticates the user, the most relevant failure is thrown: a domain which authenticated the user
+ * but mapped no authority, then an unavailable domain, then bad credentials. Attempts are started,
+ * and run on the calling thread when the executor is saturated, fastest domain first.
+ * <p>
+ * An immutable router is created per {@link SecurityConfiguration}; only the record of which domain
+ * each user authenticated with, bounded to {@link #MAX_REMEMBERED_USERS} users, changes.
+ * <p>
+ * The caches and the coalescing of identical requests in front of the router are keyed by the
+ * username as entered rather than by domain. A qualified username names its domain, and an
+ * unqualified one is cached with the result of the domain which authenticated it, the domain the
+ * router remembers for it, so the two agree.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+final class DomainRouter {
+
+    static final int MAX_REMEMBERED_USERS = 10000;
+
+    /** Orders domains by their latency; those without a response yet first, so they are sampled */
+    private static final Comparator<Route> FASTEST_FIRST = new Comparator<Route>() {
+        public int compare(Route first, Route second) {
+            long difference = first.domain.getLatencyNanos() - second.domain.getLatencyNanos();
+            return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+        }
+    };
+
+    private final List<Route> routes;
+    private final Map<String, Route> byUpnSuffix = new HashMap<String, Route>();
+    private final Map<String, Route> byNetbiosName = new HashMap<String, Route>();
+    private final ConcurrentMap<String, Route> lastDomains = new ConcurrentHashMap<String, Route>();
+
+    /**
+     * @throws SecurityException if two domains share a UPN suffix or NetBIOS name
+     */
+    DomainRouter(List<Route> routes) throws SecurityException {
+        this.routes = routes;
+        for (Route route : routes) {
+            for (String suffix : route.domain.getUpnSuffixes()) {
+                if (byUpnSuffix.put(suffix, route) != null) {
+                    throw new SecurityException("More than one domain has the UPN suffix [" + suffix + "]");
+                }
+            }
+            String netbiosName = route.domain.getNetbiosName();
+            if (netbiosName != null && byNetbiosName.put(netbiosName.toLowerCase(Locale.ENGLISH), route) != null) {
+                throw new SecurityException("More than one domain has the NetBIOS name [" + netbiosName + "]");
+            }
+        }
+    }
+
+    /**
+     * Authenticates the user against the domain(s) the username routes to.
+     * 
+     * @param executor runs parallel attempts; attempts it rejects run on the calling thread
+     */
+    Authentication authenticate(String username, DomainAuthenticator authenticator, Executor executor) throws Exception {
+        int backslash = username.indexOf('\\');
+        if (backslash >= 0) {
+            String netbiosName = username.substring(0, backslash);
+            Route route = byNetbiosName.get(netbiosName.toLowerCase(Locale.ENGLISH));
+            if (route == null) {
+                throw new BadCredentialsException("Unknown domain [" + netbiosName + "] of user [" + username + "]");
+            }
+            return route.authenticate(username.substring(backslash + 1), authenticator);
+        }
+        int at = username.lastIndexOf('@');
+        if (at >= 0) {
+            Route route = byUpnSuffix.get(username.substring(at + 1).toLowerCase(Locale.ENGLISH));
+            if (route != null) {
+                return route.authenticate(username, authenticator);
+            }
+        }
+
+        String key = username.toLowerCase(Locale.ENGLISH);
+        Route last = lastDomains.get(key);
+        if (last != null) {
+            try {
+                return last.authenticate(username, authenticator);
+            } catch (BadCredentialsException e) {
+                // the next attempt is routed to all domains
+                lastDomains.remove(key, last);
+                throw e;
+            } catch (AuthenticationServiceException e) {
+                lastDomains.remove(key, last);
+                if (routes.size() == 1) {
+                    throw e;
+                }
+                return authenticateInParallel(username, key, authenticator, executor, last);
+            }
+        }
+        if (routes.size() == 1) {
+            return routes.get(0).authenticate(username, authenticator);
+        }
+        return authenticateInParallel(username, key, authenticator, executor, null);
+    }
+
+    /**
+     * @param failed a domain which was unavailable to authenticate the user, or <code>null</code>;
+     *            it is not tried again and counts as skipped
+     */
+    private Authentication authenticateInParallel(String username, String key, DomainAuthenticator authenticator, Executor executor,
+            Route failed) throws Exception {
+        long now = System.nanoTime();
+        List<Route> available = new ArrayList<Route>(routes.size());
+        List<String> skipped = new ArrayList<String>();
+        for (Route route : routes) {
+            if (route != failed && route.domain.isAvailable(now)) {
+                available.add(route);
+            } else {
+                skipped.add(route.domain.getName());
+            }
+        }
+        if (available.isEmpty()) {
+            for (Route route : routes) {
+                if (route != failed) {
+                    available.add(route);
+                }
+            }
+            skipped.clear();
+            if (failed != null) {
+                skipped.add(failed.domain.getName());
+            }
+        }
+        Collections.sort(available, FASTEST_FIRST);
+
+        BlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+        List<Attempt> attempts = new ArrayList<Attempt>(available.size());
+        List<Attempt> rejected = new ArrayList<Attempt>();
+        for (Route route : available) {
+            Attempt attempt = new Attempt(route, username, authenticator, completed);
+            attempts.add(attempt);
+            try {
+                executor.execute(attempt);
+            } catch (RejectedExecutionException e) {
+                rejected.add(attempt);
+            }
+        }
+        try {
+            for (Attempt attempt : rejected) {
+                if (!completed.isEmpty() && completed.peek().isAuthenticated()) {
+                    break;
+                }
+                attempt.run();
+            }
+            Exception failure = null;
+            for (int i = 0; i < attempts.size(); i++) {
+                Attempt attempt = completed.take();
+                if (attempt.isCancelled()) {
+                    continue;
+                }
+                try {
+                    Authentication authentication = attempt.get();
+                    if (lastDomains.size() < MAX_REMEMBERED_USERS) {
+                        lastDomains.put(key, attempt.route);
+                    }
+                    return authentication;
+                } catch (ExecutionException e) {
+                    failure = moreRelevant(failure, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                }
+            }
+            if (failure instanceof BadCredentialsException && !skipped.isEmpty()) {
+                // the user may belong to a skipped domain, so the credentials are not known to be bad
+                throw new AuthenticationServiceException("User [" + username + "] was not authenticated by the available domains; "
+                        + skipped + " skipped as unavailable", failure);
+            }
+            throw failure;
+        } finally {
+            for (Attempt attempt : attempts) {
+                attempt.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * @return the failure to report: a user without mapped authorities over any failure, any
+     *         failure over bad credentials
+     */
+    private static Exception moreRelevant(Exception current, Exception failure) {
+        if (current == null || current instanceof BadCredentialsException) {
+            return failure;
+        }
+        if (failure instanceof NoMappedAuthorityException && !(current instanceof NoMappedAuthorityException)) {
+            return failure;
+        }
+        return current;
+    }
+
+    /**
+     * @return the domains in configuration order
+     */
+    Collection<Route> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * @return the number of users whose domain is remembered
+     */
+    int getRememberedUserCount() {
+        return lastDomains.size();
+    }
+
+    /**
+     * Authenticates a user against a single domain, including group mapping.
+     */
+    interface DomainAuthenticator {
+
+        /**
+         * @param username the username to pass to the domain's authentication manager
+         */
+        Authentication authenticate(String username, Route route) throws Exception;
+    }
+
+    /**
+     * A domain together with its compiled group map.
+     */
+    static final class Route {
+
+        final ActiveDirectoryDomain domain;
+        final CompiledGroupMap compiledGroupMap;
+
+        Route(ActiveDirectoryDomain domain, CompiledGroupMap compiledGroupMap) {
+            this.domain = domain;
+            this.compiledGroupMap = compiledGroupMap;
+        }
+
+        /**
+         * @return the current nested group snapshot of the domain, or <code>null</code>
+         */
+        GroupHierarchy getGroupHierarchy() {
+            return domain.getGroupHierarchy() == null ? null : domain.getGroupHierarchy().getHierarchy();
+        }
+
+        /**
+         * Authenticates and records the domain's health: credentials and group mapping failures are
+         * responses of a healthy domain, any other failure makes it unavailable for a while.
+         */
+        Authentication authenticate(String username, DomainAuthenticator authenticator) throws Exception {
+            long startTime = System.nanoTime();
+            try {
+                Authentication authentication = authenticator.authenticate(username, this);
+                domain.recordResponse(System.nanoTime() - startTime, true);
+                return authentication;
+            } catch (org.springframework.security.core.AuthenticationException e) {
+                if (e instanceof AuthenticationServiceException) {
+                    domain.recordFailure();
+                } else {
+                    domain.recordResponse(System.nanoTime() - startTime, false);
+                }
+                throw e;
+            } catch (NoMappedAuthorityException e) {
+                domain.recordResponse(System.nanoTime() - startTime, false);
+                throw e;
+            } catch (Exception e) {
+                domain.recordFailure();
+                throw e;
+            }
+        }
+    }
+
+    private static final class Attempt extends FutureTask<Authentication> {
+
+        final Route route;
+        private final BlockingQueue<Attempt> completed;
+
+        Attempt(final Route route, final String username, final DomainAuthenticator authenticator, BlockingQueue<Attempt> completed) {
+            super(new Callable<Authentication>() {
+                public Authentication call() throws Exception {
+                    return route.authenticate(username, authenticator);
+                }
+            });
+            this.route = route;
+            this.completed = completed;
+        }
+
+        boolean isAuthenticated() {
+            if (!isDone() || isCancelled()) {
+                return false;
+            }
+            try {
+                get();
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected void done() {
+            completed.add(this);
+        }
+    }
+}
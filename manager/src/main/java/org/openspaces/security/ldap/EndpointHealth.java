@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The health of a server authentications are routed to, such as a {@link DomainController} or an
+ * {@link ActiveDirectoryDomain}: the observed latency, tracked as an exponentially weighted moving
+ * average, and after a failure a backoff period, doubling with each consecutive failure, during
+ * which the server is considered unavailable.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+final class EndpointHealth {
+
+    /** Weight of the latest sample in the latency moving average, in 1/8ths */
+    private static final int LATENCY_SAMPLE_WEIGHT = 2;
+
+    private volatile long initialBackoffNanos;
+    private volatile long maxBackoffNanos;
+
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long retryAtNanos;
+
+    EndpointHealth(long initialBackoffMillis, long maxBackoffMillis) {
+        setInitialBackoffMillis(initialBackoffMillis);
+        setMaxBackoffMillis(maxBackoffMillis);
+    }
+
+    void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+    }
+
+    void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+    }
+
+    /**
+     * Records a response, making the server available again.
+     */
+    void recordResponse(long elapsedNanos) {
+        consecutiveFailures.set(0);
+        retryAtNanos = 0;
+        long current = latencyNanos.get();
+        long updated = current == 0 ? elapsedNanos : current + (elapsedNanos - current) * LATENCY_SAMPLE_WEIGHT / 8;
+        latencyNanos.compareAndSet(current, updated);
+    }
+
+    /**
+     * Marks the server as unavailable for a backoff period.
+     */
+    void recordFailure() {
+        int failureCount = consecutiveFailures.incrementAndGet();
+        long maxBackoff = maxBackoffNanos;
+        long backoff = initialBackoffNanos << Math.min(failureCount - 1, 30);
+        if (backoff <= 0 || backoff > maxBackoff) {
+            backoff = maxBackoff;
+        }
+        retryAtNanos = System.nanoTime() + backoff;
+    }
+
+    boolean isAvailable(long nowNanos) {
+        long retryAt = retryAtNanos;
+        return retryAt == 0 || nowNanos - retryAt >= 0;
+    }
+
+    /**
+     * @return the time the backoff period ends at, or <code>0</code> if the server is available
+     */
+    long getRetryAtNanos() {
+        return retryAtNanos;
+    }
+
+    /**
+     * @return the moving average of the response time, or <code>0</code> before the first response
+     */
+    long getLatencyNanos() {
+        return latencyNanos.get();
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Limits the failed authentications of each user over a sliding window, so that a client retrying
+ * with wrong passwords stops reaching Active Directory before the account is locked out there.
+ * <p>
+ * The window is approximated by counting failures in fixed intervals of the window's length and
+ * weighting the previous interval's count by how much of it still overlaps the sliding window.
+ * Each user's counts are an immutable snapshot replaced by compare-and-set, so checking a user is
+ * lock-free and does not allocate. Usernames are compared ignoring case, as Active Directory does.
+ * <p>
+ * At most {@value #MAX_TRACKED_USERS} users are tracked. Once full, users without recent failures
+ * are purged, and if none can be, a failure of a user not tracked yet is not recorded; clearing
+ * instead would let failures of made-up usernames reset the users actually being limited.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class FailedAttemptLimiter {
+
+    static final int MAX_TRACKED_USERS = 10000;
+
+    private final int maxFailures;
+    private final long windowNanos;
+    private final long origin = System.nanoTime();
+    private final ConcurrentMap<String, AtomicReference<Counts>> users = new ConcurrentHashMap<String, AtomicReference<Counts>>();
+
+    private final AtomicLong limited = new AtomicLong();
+
+    /**
+     * @param maxFailures the number of failures within the window after which a user is limited
+     * @param windowMillis the length of the sliding window in milliseconds
+     */
+    public FailedAttemptLimiter(int maxFailures, long windowMillis) {
+        if (maxFailures <= 0) {
+            throw new IllegalArgumentException("maxFailures must be positive: " + maxFailures);
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("windowMillis must be positive: " + windowMillis);
+        }
+        this.maxFailures = maxFailures;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * @return <code>true</code> if the user reached the maximum number of failures within the window
+     */
+    public boolean isLimited(String username) {
+        AtomicReference<Counts> reference = users.get(key(username));
+        if (reference == null) {
+            return false;
+        }
+        if (estimate(reference.get(), System.nanoTime() - origin) >= maxFailures) {
+            limited.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public void recordFailure(String username) {
+        String key = key(username);
+        AtomicReference<Counts> reference = users.get(key);
+        if (reference == null) {
+            if (users.size() >= MAX_TRACKED_USERS) {
+                purge();
+                if (users.size() >= MAX_TRACKED_USERS) {
+                    return;
+                }
+            }
+            AtomicReference<Counts> existing = users.putIfAbsent(key, reference = new AtomicReference<Counts>(Counts.NONE));
+            if (existing != null) {
+                reference = existing;
+            } else if (users.size() > MAX_TRACKED_USERS) {
+                // lost a race with other new users for the last free entry
+                users.remove(key, reference);
+                return;
+            }
+        }
+        long interval = (System.nanoTime() - origin) / windowNanos;
+        for (;;) {
+            Counts counts = reference.get();
+            if (reference.compareAndSet(counts, counts.increment(interval))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forgets the failures of a user, e.g. after a successful authentication.
+     */
+    public void reset(String username) {
+        if (!users.isEmpty()) {
+            users.remove(key(username));
+        }
+    }
+
+    /**
+     * Forgets users without failures in the current or previous interval.
+     */
+    private void purge() {
+        long interval = (System.nanoTime() - origin) / windowNanos;
+        for (Iterator<AtomicReference<Counts>> iterator = users.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().get().interval < interval - 1) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private double estimate(Counts counts, long elapsedNanos) {
+        long interval = elapsedNanos / windowNanos;
+        if (counts.interval == interval) {
+            double previousWeight = 1 - (double) (elapsedNanos % windowNanos) / windowNanos;
+            return counts.current + counts.previous * previousWeight;
+        }
+        if (counts.interval == interval - 1) {
+            double previousWeight = 1 - (double) (elapsedNanos % windowNanos) / windowNanos;
+            return counts.current * previousWeight;
+        }
+        return 0;
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return the number of users currently tracked
+     */
+    public int size() {
+        return users.size();
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    public long getWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+    }
+
+    /**
+     * @return the number of checks which found a user limited
+     */
+    public long getLimitedCount() {
+        return limited.get();
+    }
+
+    /**
+     * Failure counts of the interval a failure was last recorded in and of the one before it.
+     */
+    private static final class Counts {
+
+        static final Counts NONE = new Counts(Long.MIN_VALUE, 0, 0);
+
+        final long interval;
+        final int previous;
+        final int current;
+
+        Counts(long interval, int previous, int current) {
+            this.interval = interval;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        Counts increment(long now) {
+            if (now == interval) {
+                return new Counts(interval, previous, current + 1);
+            }
+            return new Counts(now, now == interval + 1 ? current : 0, 1);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A short time-to-live cache of credentials which recently failed to authenticate, keyed by
+ * {@link CredentialKey}, so that clients retrying with a stale password are rejected without
+ * another bind against Active Directory. Lookups are lock-free.
+ * <p>
+ * Once the maximum size is exceeded expired entries are purged, and if none expired the cache is
+ * cleared; failing to remember a failure only costs another bind.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class FailedAuthenticationCache {
+
+    private final long timeToLiveNanos;
+    private final int maxSize;
+    private final ConcurrentMap<CredentialKey, Long> expirations = new ConcurrentHashMap<CredentialKey, Long>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param timeToLiveMillis how long a failed credential is rejected, in milliseconds
+     * @param maxSize the maximum number of remembered failed credentials
+     */
+    public FailedAuthenticationCache(long timeToLiveMillis, int maxSize) {
+        if (timeToLiveMillis <= 0) {
+            throw new IllegalArgumentException("timeToLiveMillis must be positive: " + timeToLiveMillis);
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return <code>true</code> if these credentials failed to authenticate within the time-to-live
+     */
+    public boolean contains(CredentialKey key) {
+        Long expiration = expirations.get(key);
+        if (expiration == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiration >= 0) {
+            expirations.remove(key, expiration);
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    public void put(CredentialKey key) {
+        expirations.put(key, System.nanoTime() + timeToLiveNanos);
+        if (expirations.size() > maxSize) {
+            purge();
+        }
+    }
+
+    private void purge() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<CredentialKey, Long>> iterator = expirations.entrySet().iterator(); iterator.hasNext();) {
+            if (now - iterator.next().getValue() >= 0) {
+                iterator.remove();
+            }
+        }
+        if (expirations.size() > maxSize) {
+            expirations.clear();
+        }
+    }
+
+    /**
+     * Forgets all failed credentials of the given user, e.g. after the user's password was reset.
+     */
+    public void invalidate(String username) {
+        for (Iterator<CredentialKey> iterator = expirations.keySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().getUsername().equals(username)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        expirations.clear();
+    }
+
+    public int size() {
+        return expirations.size();
+    }
+
+    public long getTimeToLiveMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeToLiveNanos);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+}
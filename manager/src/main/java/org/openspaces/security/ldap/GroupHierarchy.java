@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of nested group membership, reduced to what group mapping needs: for each
+ * group, the mapped groups it is a (direct or transitive) member of. The closure is computed only
+ * from the mapped groups downwards, so its size depends on the mapped part of the hierarchy rather
+ * than on the whole directory.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public final class GroupHierarchy {
+
+    public static final GroupHierarchy EMPTY = new GroupHierarchy(Collections.<String, String[]> emptyMap());
+
+    private final Map<String, String[]> mappedAncestors;
+
+    private GroupHierarchy(Map<String, String[]> mappedAncestors) {
+        this.mappedAncestors = mappedAncestors;
+    }
+
+    /**
+     * @param parents each group's direct parent groups (its <code>memberOf</code>)
+     * @param mappedGroups the groups of interest, typically the group mapper's keys
+     */
+    public static GroupHierarchy build(Map<String, ? extends Collection<String>> parents, Set<String> mappedGroups) {
+        Map<String, List<String>> children = new HashMap<String, List<String>>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : parents.entrySet()) {
+            for (String parent : entry.getValue()) {
+                List<String> parentChildren = children.get(parent);
+                if (parentChildren == null) {
+                    parentChildren = new ArrayList<String>();
+                    children.put(parent, parentChildren);
+                }
+                parentChildren.add(entry.getKey());
+            }
+        }
+
+        Map<String, Set<String>> ancestors = new HashMap<String, Set<String>>();
+        for (String mappedGroup : mappedGroups) {
+            Set<String> visited = new HashSet<String>();
+            visited.add(mappedGroup);
+            ArrayDeque<String> queue = new ArrayDeque<String>();
+            queue.add(mappedGroup);
+            while (!queue.isEmpty()) {
+                List<String> groupChildren = children.get(queue.poll());
+                if (groupChildren == null) {
+                    continue;
+                }
+                for (String child : groupChildren) {
+                    if (visited.add(child)) {
+                        queue.add(child);
+                        Set<String> childAncestors = ancestors.get(child);
+                        if (childAncestors == null) {
+                            childAncestors = new LinkedHashSet<String>();
+                            ancestors.put(child, childAncestors);
+                        }
+                        childAncestors.add(mappedGroup);
+                    }
+                }
+            }
+        }
+
+        Map<String, String[]> mappedAncestors = new HashMap<String, String[]>(ancestors.size() * 2);
+        for (Map.Entry<String, Set<String>> entry : ancestors.entrySet()) {
+            mappedAncestors.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+        }
+        return new GroupHierarchy(mappedAncestors);
+    }
+
+    /**
+     * @return the mapped groups the given group is transitively a member of (excluding itself), or
+     *         <code>null</code> if there are none. The returned array must not be modified.
+     */
+    public String[] getMappedAncestors(String group) {
+        return mappedAncestors.get(group);
+    }
+
+    /**
+     * @return the number of groups which are nested in at least one mapped group
+     */
+    public int size() {
+        return mappedAncestors.size();
+    }
+}
@@ -20,17 +20,21 @@ package org.openspaces.security.ldap;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.security.core.GrantedAuthority;
 
 import com.gigaspaces.security.Authority;
 import com.gigaspaces.security.AuthorityFactory;
+import com.gigaspaces.security.SecurityException;
 
 /**
  * A factory for creating an {@link Authority} instance list back from authority map representation.
  * This requires {@link ActiveDirectoryGroupMapper} to be configuration in the spring security configuraiton
- * at runtime. 
+ * at runtime. The group map is parsed once using {@link #compile(Map)}; afterwards creating the
+ * authorities of a user only requires map lookups.
  * 
  * @author Ali Hodroj
  * @since 9.7.1
@@ -39,6 +43,66 @@ public final class GroupMapperAuthorityFactory {
 	
 	private static final String AUTHORITY_MAP_DELIM = ",";
 
+	/**
+	 * Parses a raw group map (group name to comma separated authorities) into a
+	 * {@link CompiledGroupMap}.
+	 * 
+	 * @throws SecurityException if a key or value is not a string, or an authority can't be parsed
+	 */
+	public static CompiledGroupMap compile(Map authorityMap) throws SecurityException {
+		Map<String, Authority[]> compiled = new LinkedHashMap<String, Authority[]>();
+		if (authorityMap == null) {
+			return new CompiledGroupMap(compiled);
+		}
+		for (Object entryObject : authorityMap.entrySet()) {
+			Map.Entry entry = (Map.Entry) entryObject;
+			if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) {
+				throw new SecurityException("Illegal group mapping [" + entry.getKey() + "=" + entry.getValue() + "]; group and authorities must be strings");
+			}
+			String group = ((String) entry.getKey()).trim();
+			String[] split = ((String) entry.getValue()).split(AUTHORITY_MAP_DELIM);
+			List<Authority> authorities = new ArrayList<Authority>(split.length);
+			for (String authority : split) {
+				authority = authority.trim();
+				if (authority.length() == 0) {
+					continue;
+				}
+				try {
+					authorities.add(AuthorityFactory.create(authority));
+				} catch (RuntimeException e) {
+					throw new SecurityException("Illegal authority [" + authority + "] mapped to group [" + group + "]", e);
+				}
+			}
+			compiled.put(group, authorities.toArray(new Authority[authorities.size()]));
+		}
+		return new CompiledGroupMap(compiled);
+	}
+
+	/**
+	 * @return the de-duplicated authorities mapped to the given granted authorities (memberOf), in
+	 *         group map order. The returned array is shared between users with the same mapped
+	 *         groups and must not be modified.
+	 */
+	public static Authority[] create(Collection<? extends GrantedAuthority> grantedAuthorities, CompiledGroupMap groupMap) {
+		return groupMap.resolve(grantedAuthorities, null);
+	}
+
+	/**
+	 * Same as {@link #create(Collection, CompiledGroupMap)}, also granting the authorities of mapped
+	 * groups the granted authorities are nested in.
+	 */
+	public static Authority[] create(Collection<? extends GrantedAuthority> grantedAuthorities, CompiledGroupMap groupMap, GroupHierarchy hierarchy) {
+		return groupMap.resolve(grantedAuthorities, hierarchy);
+	}
+
+	/**
+	 * Parses the authority map on every call, keeping duplicates and the authority strings as
+	 * mapped; only exact group names are matched.
+	 * 
+	 * @deprecated compile the map once using {@link #compile(Map)} and use
+	 *             {@link #create(Collection, CompiledGroupMap)}
+	 */
+	@Deprecated
 	public static ArrayList<Authority> create(Collection<? extends GrantedAuthority> grantedAuthorities, Map authorityMap) {
 		ArrayList<Authority> authoritiesList = new ArrayList<Authority>();
 				
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+import com.gigaspaces.security.SecurityException;
+
+/**
+ * The pattern rules of a group map, compiled into indexes which are walked once per group instead
+ * of testing every rule:
+ * <ul>
+ * <li>Wildcard rules (<code>grp-xap-*-ro</code>, <code>?</code> matching a single character) are
+ * kept in a trie by their literal prefix, so only rules whose prefix is a prefix of the group name
+ * are tested.</li>
+ * <li>DN rules (<code>dn:OU=Cache,OU=Apps,DC=gigaspaces,DC=com</code>) are kept in a trie of RDNs
+ * from the root, matching every group at or below the given DN in a single walk of the group's
+ * DN.</li>
+ * <li>Regular expression rules (<code>regex:xap-(dev|qa)-.*</code>) are tested one by one.</li>
+ * </ul>
+ * Wildcard and regular expression rules match the whole group name, and all rules match
+ * case-insensitively, as Active Directory compares names. {@link CompiledGroupMap} memoizes the
+ * result per group, so each distinct group is matched once.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+final class GroupRuleMatcher {
+
+    static final String REGEX_PREFIX = "regex:";
+    static final String DN_PREFIX = "dn:";
+
+    private final GlobNode globs = new GlobNode();
+    private final DnNode dns = new DnNode();
+    private final List<Pattern> regexes = new ArrayList<Pattern>();
+    private final List<Integer> regexIndexes = new ArrayList<Integer>();
+    private int size;
+
+    /**
+     * @return whether the group map key is a pattern rule rather than a group name
+     */
+    static boolean isPattern(String rule) {
+        return rule.startsWith(REGEX_PREFIX) || rule.startsWith(DN_PREFIX) || isWildcard(rule);
+    }
+
+    static boolean isWildcard(String rule) {
+        return rule.indexOf('*') >= 0 || rule.indexOf('?') >= 0;
+    }
+
+    /**
+     * @param rule a pattern rule, see {@link #isPattern(String)}
+     * @param index the rule's index, reported by {@link #match(String, LdapName, BitSet)}
+     * @throws SecurityException if the regular expression or DN can't be parsed
+     */
+    void add(String rule, int index) throws SecurityException {
+        if (rule.startsWith(REGEX_PREFIX)) {
+            try {
+                regexes.add(Pattern.compile(rule.substring(REGEX_PREFIX.length()), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+            } catch (PatternSyntaxException e) {
+                throw new SecurityException("Illegal group mapping [" + rule + "]; invalid regular expression", e);
+            }
+            regexIndexes.add(index);
+        } else if (rule.startsWith(DN_PREFIX)) {
+            LdapName dn;
+            try {
+                dn = new LdapName(rule.substring(DN_PREFIX.length()).trim());
+            } catch (InvalidNameException e) {
+                throw new SecurityException("Illegal group mapping [" + rule + "]; invalid DN", e);
+            }
+            if (dn.isEmpty()) {
+                throw new SecurityException("Illegal group mapping [" + rule + "]; empty DN");
+            }
+            DnNode node = dns;
+            for (int i = 0; i < dn.size(); i++) {
+                node = node.child(dn.getRdn(i));
+            }
+            node.indexes.add(index);
+        } else {
+            String pattern = rule.toLowerCase(Locale.ENGLISH);
+            GlobNode node = globs;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    break;
+                }
+                node = node.child(c);
+            }
+            node.patterns.add(pattern);
+            node.indexes.add(index);
+        }
+        size++;
+    }
+
+    /**
+     * Sets the index of every rule matching the group.
+     * 
+     * @param name the group's common name
+     * @param dn the group's DN, or <code>null</code> if unknown, in which case DN rules don't match
+     */
+    void match(String name, LdapName dn, BitSet matches) {
+        String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+        GlobNode globNode = globs;
+        for (int i = 0; globNode != null; i++) {
+            for (int j = 0; j < globNode.patterns.size(); j++) {
+                if (wildcardMatches(globNode.patterns.get(j), lowerCaseName)) {
+                    matches.set(globNode.indexes.get(j));
+                }
+            }
+            globNode = i < lowerCaseName.length() ? globNode.children.get(lowerCaseName.charAt(i)) : null;
+        }
+
+        for (int i = 0; i < regexes.size(); i++) {
+            if (regexes.get(i).matcher(name).matches()) {
+                matches.set(regexIndexes.get(i));
+            }
+        }
+
+        if (dn != null) {
+            DnNode dnNode = dns;
+            for (int i = 0; i < dn.size() && dnNode != null; i++) {
+                dnNode = dnNode.children.get(dn.getRdn(i));
+                if (dnNode != null) {
+                    for (Integer index : dnNode.indexes) {
+                        matches.set(index);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of rules
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Matches the whole text, backtracking only to the most recent <code>*</code>.
+     */
+    static boolean wildcardMatches(String pattern, String text) {
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int starText = 0;
+        while (t < text.length()) {
+            char c = p < pattern.length() ? pattern.charAt(p) : 0;
+            if (p < pattern.length() && (c == '?' || c == text.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && c == '*') {
+                star = p++;
+                starText = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++starText;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    private static final class GlobNode {
+
+        final Map<Character, GlobNode> children = new HashMap<Character, GlobNode>(4);
+        final List<String> patterns = new ArrayList<String>(0);
+        final List<Integer> indexes = new ArrayList<Integer>(0);
+
+        GlobNode child(char c) {
+            GlobNode child = children.get(c);
+            if (child == null) {
+                child = new GlobNode();
+                children.put(c, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Keyed by {@link Rdn}, whose equality ignores the case of attribute types and values.
+     */
+    private static final class DnNode {
+
+        final Map<Rdn, DnNode> children = new HashMap<Rdn, DnNode>(4);
+        final List<Integer> indexes = new ArrayList<Integer>(0);
+
+        DnNode child(Rdn rdn) {
+            DnNode child = children.get(rdn);
+            if (child == null) {
+                child = new DnNode();
+                children.put(rdn, child);
+            }
+            return child;
+        }
+    }
+}
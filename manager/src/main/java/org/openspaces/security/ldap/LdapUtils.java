@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.io.InterruptedIOException;
+import java.util.Hashtable;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.PartialResultException;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+
+/**
+ * JNDI helpers shared by the classes talking to Active Directory directly.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+final class LdapUtils {
+
+    private static final String LDAP_CONTEXT_FACTORY = "com.sun.jndi.ldap.LdapCtxFactory";
+    private static final String CONNECT_TIMEOUT_PROPERTY = "com.sun.jndi.ldap.connect.timeout";
+    private static final String READ_TIMEOUT_PROPERTY = "com.sun.jndi.ldap.read.timeout";
+
+    private LdapUtils() {
+    }
+
+    /**
+     * @param authentication the JNDI authentication mechanism, e.g. <code>simple</code> or <code>none</code>
+     * @param principal the bind principal, or <code>null</code> for an anonymous connection
+     */
+    static Hashtable<String, Object> environment(String url, String authentication, String principal, String password,
+            long connectTimeout, long readTimeout) {
+        Hashtable<String, Object> environment = new Hashtable<String, Object>();
+        environment.put(Context.INITIAL_CONTEXT_FACTORY, LDAP_CONTEXT_FACTORY);
+        environment.put(Context.PROVIDER_URL, url);
+        environment.put(Context.SECURITY_AUTHENTICATION, authentication);
+        if (principal != null) {
+            environment.put(Context.SECURITY_PRINCIPAL, principal);
+            environment.put(Context.SECURITY_CREDENTIALS, password);
+        }
+        environment.put(CONNECT_TIMEOUT_PROPERTY, String.valueOf(connectTimeout));
+        environment.put(READ_TIMEOUT_PROPERTY, String.valueOf(readTimeout));
+        return environment;
+    }
+
+    /**
+     * @return the next result, or <code>null</code> if there is none. Active Directory reports
+     *         unfollowed referrals as a {@link PartialResultException}, which is ignored.
+     */
+    static SearchResult next(NamingEnumeration<SearchResult> results) throws NamingException {
+        try {
+            return results.hasMore() ? results.next() : null;
+        } catch (PartialResultException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the operation failed because the connect or read timeout passed,
+     *         as opposed to the connection having been closed
+     */
+    static boolean isTimeout(NamingException e) {
+        // the JDK's provider reports a read timeout only by its message
+        if (e.getMessage() != null && e.getMessage().contains("timed out")) {
+            return true;
+        }
+        for (Throwable cause = e.getRootCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedIOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the value of the most significant RDN of the given DN, e.g. <code>Administrators</code>
+     *         for <code>CN=Administrators,CN=Builtin,DC=gigaspaces,DC=com</code>
+     */
+    static String commonName(String dn) throws NamingException {
+        LdapName name = new LdapName(dn);
+        if (name.isEmpty()) {
+            return dn;
+        }
+        return name.getRdn(name.size() - 1).getValue().toString();
+    }
+
+    /**
+     * @return the root DN of an Active Directory domain, e.g. <code>dc=gigaspaces,dc=com</code> for
+     *         <code>gigaspaces.com</code>
+     */
+    static String rootDnFromDomain(String domain) {
+        StringBuilder rootDn = new StringBuilder();
+        for (String component : domain.split("\\.")) {
+            if (rootDn.length() > 0) {
+                rootDn.append(',');
+            }
+            rootDn.append("dc=").append(component);
+        }
+        return rootDn.toString();
+    }
+}
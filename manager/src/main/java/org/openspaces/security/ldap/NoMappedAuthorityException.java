@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.AuthenticationException;
+
+/**
+ * Thrown when an authenticated user is not a member of any group mapped to an authority.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+class NoMappedAuthorityException extends AuthenticationException {
+
+    private static final long serialVersionUID = 1L;
+
+    NoMappedAuthorityException(String message) {
+        super(message);
+    }
+}
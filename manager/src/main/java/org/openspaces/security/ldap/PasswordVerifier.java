@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import com.gigaspaces.security.SecurityException;
+
+/**
+ * A PBKDF2 hash of a password with its own random salt, which the {@link AuthenticationCacheSnapshot}
+ * stores instead of the {@link CredentialDigester}'s single fast digest. Deriving it takes many
+ * iterations, so passwords cannot be guessed from a copied snapshot at the speed of a plain digest.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+final class PasswordVerifier {
+
+    static final int ITERATIONS = 10000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_BITS = 160;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] salt;
+    private final int iterations;
+    private final byte[] hash;
+
+    PasswordVerifier(byte[] salt, int iterations, byte[] hash) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        this.salt = salt;
+        this.iterations = iterations;
+        this.hash = hash;
+    }
+
+    /**
+     * @return a verifier of the given password with a new salt, or <code>null</code> if the
+     *         password is empty
+     */
+    static PasswordVerifier create(String password) {
+        if (password == null || password.length() == 0) {
+            return null;
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return new PasswordVerifier(salt, ITERATIONS, hash(password, salt, ITERATIONS));
+    }
+
+    /**
+     * @return <code>true</code> if the given password is the one this verifier was created for
+     */
+    boolean matches(String password) {
+        if (password == null || password.length() == 0) {
+            return false;
+        }
+        return MessageDigest.isEqual(hash, hash(password, salt, iterations));
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new SecurityException("Key derivation algorithm " + ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    byte[] getSalt() {
+        return salt;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    byte[] getHash() {
+        return hash;
+    }
+}
@@ -0,0 +1,578 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import com.gigaspaces.security.SecurityManager;
+
+/**
+ * An Active Directory {@link AuthenticationProvider} which authenticates against a list of domain
+ * controllers, as a drop-in replacement for Spring's <code>ActiveDirectoryLdapAuthenticationProvider</code>:
+ * <code>
+ * <pre>
+ * &lt;bean id="ldapAuthenticationProvider" class="org.openspaces.security.ldap.PooledActiveDirectoryLdapAuthenticationProvider"&gt;
+ *     &lt;constructor-arg value="gigaspaces.com" /&gt;
+ *     &lt;constructor-arg value="ldaps://dc1.gigaspaces.com,ldaps://dc2.gigaspaces.com" /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * </code>
+ * Connections are kept open after use and re-bound as the next user to authenticate, so most binds
+ * do not pay for a TCP and TLS handshake. At most {@link #setMaxConnections(int) maxConnections} are
+ * open to each domain controller; a bind finding all of them in use waits up to the connect timeout
+ * for one, and then moves on to the next domain controller. Each bind is routed to the available
+ * domain controller with the lowest recently observed latency, and every so many binds one of the
+ * others is tried first in turn, so that the latency of each is sampled again. A domain controller
+ * which fails with anything but invalid credentials is skipped for a backoff period, and the bind
+ * is retried on the next one. A pooled connection whose re-bind fails is replaced by a new one
+ * unless the re-bind timed out, in which case the domain controller is considered failed.
+ * <p>
+ * As with Spring's provider, the user's groups are read from the <code>memberOf</code> attribute and
+ * granted as the common name of each group, as an {@link ActiveDirectoryGroupAuthority} which also
+ * carries the group's DN. If a {@link #setGroupMapper(ActiveDirectoryGroupMapper) groupMapper} is
+ * set, the directory is instead asked for only those of the user's groups which are mapped, which
+ * keeps responses small for users belonging to many groups. Group names and <code>*</code>
+ * wildcard rules are matched by the directory; if the group map has other pattern rules
+ * (<code>?</code>, <code>regex:</code> or <code>dn:</code>) all groups are read from
+ * <code>memberOf</code>. Unless {@link #setNestedGroups(boolean) nestedGroups} is set, only groups
+ * the user is a direct member of are matched; when an {@link ActiveDirectoryGroupHierarchy} is
+ * configured, the security manager turns nested matching on, as the unmapped groups through which
+ * the hierarchy would resolve mapped ones are not read.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class PooledActiveDirectoryLdapAuthenticationProvider implements AuthenticationProvider, InitializingBean, DisposableBean {
+
+    private static final Logger logger = Logger.getLogger(SecurityManager.class.getPackage().getName());
+
+    private static final String MEMBER_OF_ATTRIBUTE = "memberOf";
+    private static final String COMMON_NAME_ATTRIBUTE = "cn";
+
+    /** LDAP_MATCHING_RULE_IN_CHAIN: matches membership at any nesting depth */
+    private static final String IN_CHAIN_MATCHING_RULE = "1.2.840.113556.1.4.1941";
+
+    /** Every so many binds another available domain controller is tried first, to re-sample its latency */
+    private static final int LATENCY_PROBE_INTERVAL = 64;
+
+    private final String domain;
+    private final String[] urls;
+    private String rootDn;
+    private String searchFilter = "(&(objectClass=user)(userPrincipalName={0}))";
+    private int maxConnections = 32;
+    private int maxIdleConnections = 8;
+    private int warmConnections = 1;
+    private long maxIdleTime = 300000;
+    private long connectTimeout = 5000;
+    private long readTimeout = 10000;
+    private long initialRetryBackoff = 1000;
+    private long maxRetryBackoff = 60000;
+    private ActiveDirectoryGroupMapper groupMapper;
+    private volatile boolean nestedGroups;
+
+    private volatile String mappedGroupSearchFilter;
+
+    private volatile DomainController[] domainControllers;
+    private final AtomicLong binds = new AtomicLong();
+
+    private static final Comparator<DomainController> BY_LATENCY = new Comparator<DomainController>() {
+        public int compare(DomainController first, DomainController second) {
+            long difference = first.getLatencyNanos() - second.getLatencyNanos();
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    };
+
+    private static final Comparator<DomainController> BY_RETRY_TIME = new Comparator<DomainController>() {
+        public int compare(DomainController first, DomainController second) {
+            long difference = first.getRetryAtNanos() - second.getRetryAtNanos();
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    };
+
+    /**
+     * @param domain the Active Directory domain, e.g. <code>gigaspaces.com</code>
+     * @param urls the LDAP URLs of the domain controllers
+     */
+    public PooledActiveDirectoryLdapAuthenticationProvider(String domain, String[] urls) {
+        if (domain == null || domain.trim().length() == 0) {
+            throw new IllegalArgumentException("domain must be set");
+        }
+        if (urls == null || urls.length == 0) {
+            throw new IllegalArgumentException("at least one domain controller url must be set");
+        }
+        this.domain = domain.trim().toLowerCase();
+        this.urls = new String[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            this.urls[i] = urls[i].trim();
+        }
+        this.rootDn = LdapUtils.rootDnFromDomain(this.domain);
+    }
+
+    public void afterPropertiesSet() {
+        DomainController[] controllers = new DomainController[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            controllers[i] = new DomainController(urls[i], maxConnections, maxIdleConnections, maxIdleTime, initialRetryBackoff, maxRetryBackoff);
+        }
+        domainControllers = controllers;
+        mappedGroupSearchFilter = groupMapper == null ? null : mappedGroupSearchFilter(groupMapper.getGroupMap().keySet(), nestedGroups);
+    }
+
+    /**
+     * @return a filter matching the mapped groups the user <code>{0}</code> is a member of, or
+     *         <code>null</code> if there are no mapped groups or a rule can't be expressed as a
+     *         filter
+     */
+    static String mappedGroupSearchFilter(Collection<?> mappedGroups, boolean nestedGroups) {
+        if (mappedGroups.isEmpty()) {
+            return null;
+        }
+        StringBuilder filter = new StringBuilder("(&(objectClass=group)(member");
+        if (nestedGroups) {
+            filter.append(':').append(IN_CHAIN_MATCHING_RULE).append(':');
+        }
+        filter.append("={0})(|");
+        for (Object mappedGroup : mappedGroups) {
+            String group = mappedGroup.toString().trim();
+            boolean wildcard = GroupRuleMatcher.isPattern(group);
+            if (wildcard && (group.startsWith(GroupRuleMatcher.REGEX_PREFIX) || group.startsWith(GroupRuleMatcher.DN_PREFIX)
+                    || group.indexOf('?') >= 0)) {
+                return null;
+            }
+            filter.append('(').append(COMMON_NAME_ATTRIBUTE).append('=');
+            if (wildcard) {
+                // a substring assertion: the literal parts escaped, separated by unescaped wildcards
+                String[] parts = group.split("\\*", -1);
+                for (int i = 0; i < parts.length; i++) {
+                    if (i > 0) {
+                        filter.append('*');
+                    }
+                    escapeFilterValue(parts[i], filter);
+                }
+            } else {
+                escapeFilterValue(group, filter);
+            }
+            filter.append(')');
+        }
+        return filter.append("))").toString();
+    }
+
+    /**
+     * Escapes a filter assertion value as defined by RFC 4515.
+     */
+    private static void escapeFilterValue(String value, StringBuilder filter) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '*': filter.append("\\2a"); break;
+                case '(': filter.append("\\28"); break;
+                case ')': filter.append("\\29"); break;
+                case '\\': filter.append("\\5c"); break;
+                case '\0': filter.append("\\00"); break;
+                case '{': filter.append("\\7b"); break;
+                case '}': filter.append("\\7d"); break;
+                default: filter.append(c);
+            }
+        }
+    }
+
+    public Authentication authenticate(Authentication authentication) throws org.springframework.security.core.AuthenticationException {
+        String username = authentication.getName();
+        Object credentials = authentication.getCredentials();
+        String password = credentials == null ? null : credentials.toString();
+        if (username == null || username.length() == 0) {
+            throw new BadCredentialsException("Empty username");
+        }
+        // an empty password would be an unauthenticated bind, which Active Directory accepts
+        if (password == null || password.length() == 0) {
+            throw new BadCredentialsException("Empty password");
+        }
+
+        String bindPrincipal = createBindPrincipal(username);
+        NamingException lastFailure = null;
+        for (DomainController domainController : selectDomainControllers()) {
+            try {
+                Collection<GrantedAuthority> authorities = authenticate(domainController, bindPrincipal, password);
+                return new UsernamePasswordAuthenticationToken(username, password, authorities);
+            } catch (AuthenticationException e) {
+                throw new BadCredentialsException("Bad credentials for user [" + username + "]", e);
+            } catch (DomainController.ConnectionLimitException e) {
+                // busy, not failed
+                lastFailure = e;
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Domain controller " + domainController + " has no free connection, trying next one");
+                }
+            } catch (NamingException e) {
+                domainController.recordFailure();
+                lastFailure = e;
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.log(Level.WARNING, "Domain controller " + domainController + " failed, trying next one: " + e);
+                }
+            }
+        }
+        throw new AuthenticationServiceException("No domain controller of " + domain + " is available", lastFailure);
+    }
+
+    /**
+     * Binds as the given principal on a pooled connection (or a new one if none is idle or the idle
+     * one turned out to be broken) and reads the principal's groups.
+     */
+    private Collection<GrantedAuthority> authenticate(DomainController domainController, String bindPrincipal, String password) throws NamingException {
+        long start = System.nanoTime();
+        LdapContext context = domainController.acquire(connectTimeout);
+        boolean reserved = context == null;
+        try {
+            if (context != null) {
+                try {
+                    bind(context, bindPrincipal, password);
+                } catch (AuthenticationException e) {
+                    domainController.recordSuccess(System.nanoTime() - start);
+                    throw e;
+                } catch (NamingException e) {
+                    if (LdapUtils.isTimeout(e)) {
+                        // a hung domain controller; a new connection would wait for the timeout again
+                        throw e;
+                    }
+                    // the idle connection was closed by the server; retry once on a new connection
+                    domainController.discard(context);
+                    context = null;
+                    if (!domainController.tryReserve()) {
+                        throw new DomainController.ConnectionLimitException("All connections to " + domainController + " are in use");
+                    }
+                    reserved = true;
+                }
+            }
+            if (context == null) {
+                try {
+                    context = connect(domainController, "simple", bindPrincipal, password);
+                    reserved = false;
+                } catch (AuthenticationException e) {
+                    domainController.recordSuccess(System.nanoTime() - start);
+                    throw e;
+                }
+            }
+            Collection<GrantedAuthority> authorities = searchAuthorities(context, bindPrincipal);
+            context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+            domainController.release(context);
+            context = null;
+            domainController.recordSuccess(System.nanoTime() - start);
+            return authorities;
+        } finally {
+            if (context != null) {
+                domainController.discard(context);
+            } else if (reserved) {
+                domainController.connectionFailed();
+            }
+        }
+    }
+
+    private void bind(LdapContext context, String bindPrincipal, String password) throws NamingException {
+        context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+        context.addToEnvironment(Context.SECURITY_PRINCIPAL, bindPrincipal);
+        context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+        // re-authenticates over the existing connection
+        context.reconnect(null);
+    }
+
+    private LdapContext connect(DomainController domainController, String authentication, String bindPrincipal, String password) throws NamingException {
+        LdapContext context = new InitialLdapContext(LdapUtils.environment(domainController.getUrl(), authentication, bindPrincipal, password,
+                connectTimeout, readTimeout), null);
+        domainController.connectionCreated();
+        return context;
+    }
+
+    private Collection<GrantedAuthority> searchAuthorities(LdapContext context, String bindPrincipal) throws NamingException {
+        String filter = mappedGroupSearchFilter;
+        if (filter != null) {
+            return searchMappedAuthorities(context, bindPrincipal, filter);
+        }
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(new String[] { MEMBER_OF_ATTRIBUTE });
+        NamingEnumeration<SearchResult> results = context.search(rootDn, searchFilter, new Object[] { bindPrincipal }, controls);
+        try {
+            SearchResult result = LdapUtils.next(results);
+            if (result == null) {
+                throw new BadCredentialsException("User [" + bindPrincipal + "] was not found under " + rootDn);
+            }
+            Attribute memberOf = result.getAttributes().get(MEMBER_OF_ATTRIBUTE);
+            if (memberOf == null) {
+                return Collections.emptyList();
+            }
+            List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>(memberOf.size());
+            NamingEnumeration<?> groups = memberOf.getAll();
+            try {
+                while (groups.hasMore()) {
+                    String dn = groups.next().toString();
+                    authorities.add(new ActiveDirectoryGroupAuthority(LdapUtils.commonName(dn), dn));
+                }
+            } finally {
+                groups.close();
+            }
+            return authorities;
+        } finally {
+            results.close();
+        }
+    }
+
+    /**
+     * Looks up the user's DN and then searches only the mapped groups having the user as a member, so
+     * that the response holds a few common names rather than the user's full <code>memberOf</code>.
+     */
+    private Collection<GrantedAuthority> searchMappedAuthorities(LdapContext context, String bindPrincipal, String groupFilter) throws NamingException {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(new String[0]);
+        String userDn;
+        NamingEnumeration<SearchResult> results = context.search(rootDn, searchFilter, new Object[] { bindPrincipal }, controls);
+        try {
+            SearchResult result = LdapUtils.next(results);
+            if (result == null) {
+                throw new BadCredentialsException("User [" + bindPrincipal + "] was not found under " + rootDn);
+            }
+            userDn = result.getNameInNamespace();
+        } finally {
+            results.close();
+        }
+
+        controls.setReturningAttributes(new String[] { COMMON_NAME_ATTRIBUTE });
+        List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>();
+        results = context.search(rootDn, groupFilter, new Object[] { userDn }, controls);
+        try {
+            SearchResult result;
+            while ((result = LdapUtils.next(results)) != null) {
+                Attribute commonName = result.getAttributes().get(COMMON_NAME_ATTRIBUTE);
+                String group = commonName != null ? commonName.get().toString() : LdapUtils.commonName(result.getNameInNamespace());
+                authorities.add(new ActiveDirectoryGroupAuthority(group, result.getNameInNamespace()));
+            }
+        } finally {
+            results.close();
+        }
+        return authorities;
+    }
+
+    /**
+     * @return the domain controllers in the order they should be tried: available ones by latency,
+     *         followed by unavailable ones by the time they become available again. Every
+     *         {@value #LATENCY_PROBE_INTERVAL} binds, the next of the slower available ones in
+     *         round-robin order is moved to the front.
+     */
+    private List<DomainController> selectDomainControllers() {
+        DomainController[] controllers = domainControllers;
+        if (controllers == null) {
+            throw new IllegalStateException("afterPropertiesSet() has not been called");
+        }
+        long now = System.nanoTime();
+        List<DomainController> available = new ArrayList<DomainController>(controllers.length);
+        List<DomainController> unavailable = new ArrayList<DomainController>(controllers.length);
+        for (DomainController controller : controllers) {
+            (controller.isAvailable(now) ? available : unavailable).add(controller);
+        }
+        Collections.sort(available, BY_LATENCY);
+        long bind = binds.incrementAndGet();
+        if (available.size() > 1 && bind % LATENCY_PROBE_INTERVAL == 0) {
+            int probed = 1 + (int) ((bind / LATENCY_PROBE_INTERVAL) % (available.size() - 1));
+            available.add(0, available.remove(probed));
+        }
+        Collections.sort(unavailable, BY_RETRY_TIME);
+        available.addAll(unavailable);
+        return available;
+    }
+
+    /**
+     * Matches mapped groups at any nesting depth, if only mapped groups are read. Called by the
+     * security manager when an {@link ActiveDirectoryGroupHierarchy} resolves nested groups, which
+     * it could not do from the directly mapped groups alone.
+     */
+    void requireNestedGroups() {
+        if (groupMapper == null || nestedGroups) {
+            return;
+        }
+        nestedGroups = true;
+        mappedGroupSearchFilter = mappedGroupSearchFilter(groupMapper.getGroupMap().keySet(), true);
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("Matching mapped groups of " + domain + " at any nesting depth, as a group hierarchy is configured");
+        }
+    }
+
+    /**
+     * Opens {@link #setWarmConnections(int) warmConnections} anonymous connections to each domain
+     * controller, so the first binds re-use an established connection. Failing domain controllers are
+     * marked as unavailable.
+     */
+    public void warmUp() {
+        DomainController[] controllers = domainControllers;
+        if (controllers == null) {
+            throw new IllegalStateException("afterPropertiesSet() has not been called");
+        }
+        for (DomainController controller : controllers) {
+            for (int i = controller.getIdleCount(); i < warmConnections && controller.tryReserve(); i++) {
+                try {
+                    controller.release(connect(controller, "none", null, null));
+                } catch (NamingException e) {
+                    controller.connectionFailed();
+                    controller.recordFailure();
+                    if (logger.isLoggable(Level.WARNING)) {
+                        logger.log(Level.WARNING, "Failed to connect to domain controller " + controller + ": " + e);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    public void destroy() {
+        DomainController[] controllers = domainControllers;
+        if (controllers != null) {
+            for (DomainController controller : controllers) {
+                controller.closeIdle();
+            }
+        }
+    }
+
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+    }
+
+    private String createBindPrincipal(String username) {
+        if (username.indexOf('@') >= 0) {
+            return username;
+        }
+        return username + "@" + domain;
+    }
+
+    DomainController[] getDomainControllers() {
+        return domainControllers;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * @param rootDn the base DN of the user search; derived from the domain by default
+     */
+    public void setRootDn(String rootDn) {
+        this.rootDn = rootDn;
+    }
+
+    /**
+     * @param searchFilter the user search filter, <code>{0}</code> is replaced by
+     *            <code>username@domain</code>
+     */
+    public void setSearchFilter(String searchFilter) {
+        this.searchFilter = searchFilter;
+    }
+
+    /**
+     * @param maxConnections the maximum number of connections open to each domain controller, idle
+     *            or in use
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @param maxIdleConnections the maximum number of idle connections kept per domain controller
+     */
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    /**
+     * @param warmConnections the number of connections {@link #warmUp()} opens per domain controller
+     */
+    public void setWarmConnections(int warmConnections) {
+        this.warmConnections = warmConnections;
+    }
+
+    /**
+     * @param maxIdleTime milliseconds after which an idle connection is closed rather than re-used;
+     *            should be below the domain controller's <code>MaxConnIdleTime</code>
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(long readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @param initialRetryBackoff milliseconds a failed domain controller is skipped; doubles on each
+     *            consecutive failure
+     */
+    public void setInitialRetryBackoff(long initialRetryBackoff) {
+        this.initialRetryBackoff = initialRetryBackoff;
+    }
+
+    public void setMaxRetryBackoff(long maxRetryBackoff) {
+        this.maxRetryBackoff = maxRetryBackoff;
+    }
+
+    /**
+     * @param groupMapper if set, only the user's groups which are mapped by this group mapper are
+     *            read from the directory, using a server side filter
+     */
+    public void setGroupMapper(ActiveDirectoryGroupMapper groupMapper) {
+        this.groupMapper = groupMapper;
+    }
+
+    /**
+     * @param nestedGroups when reading mapped groups only, whether to also match groups the user is a
+     *            member of through nested groups (using <code>LDAP_MATCHING_RULE_IN_CHAIN</code>);
+     *            always on when an {@link ActiveDirectoryGroupHierarchy} is configured
+     */
+    public void setNestedGroups(boolean nestedGroups) {
+        this.nestedGroups = nestedGroups;
+    }
+
+    public boolean isNestedGroups() {
+        return nestedGroups;
+    }
+}
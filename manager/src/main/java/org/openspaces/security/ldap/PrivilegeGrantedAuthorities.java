@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authority;
+import com.gigaspaces.security.authorities.GrantedAuthorities;
+import com.gigaspaces.security.authorities.GridAuthority.GridPrivilege;
+import com.gigaspaces.security.authorities.MonitorAuthority.MonitorPrivilege;
+import com.gigaspaces.security.authorities.Privilege;
+import com.gigaspaces.security.authorities.SpaceAuthority.SpacePrivilege;
+import com.gigaspaces.security.authorities.SystemAuthority.SystemPrivilege;
+
+/**
+ * {@link GrantedAuthorities} whose privilege checks are a bit test instead of a walk over the
+ * authorities. The privileges are collected into one bit mask per privilege type when the
+ * authorities are resolved, see {@link CompiledGroupMap}, and shared by all users with the same
+ * mapped groups.
+ * <p>
+ * Only plain <code>&lt;type&gt; &lt;privilege&gt;</code> authorities, such as
+ * <code>SpacePrivilege READ</code>, are precomputed. If any authority is filtered (e.g. restricted
+ * to some classes) or of an unknown type, privilege checks fall back to
+ * {@link GrantedAuthorities#isGranted(Privilege)}. The authorities are serialized as plain
+ * {@link GrantedAuthorities}.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+final class PrivilegeGrantedAuthorities extends GrantedAuthorities {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The privilege types which are precomputed; the index of a type is the index of its mask */
+    private static final Class<?>[] PRIVILEGE_TYPES = { SpacePrivilege.class, GridPrivilege.class, MonitorPrivilege.class,
+            SystemPrivilege.class };
+
+    private final Authority[] authorities;
+
+    /** Granted privileges by type and ordinal, or <code>null</code> if not precomputed */
+    private final transient long[] masks;
+
+    PrivilegeGrantedAuthorities(Authority[] authorities) {
+        super(authorities);
+        this.authorities = authorities;
+        this.masks = masks(authorities);
+    }
+
+    /**
+     * @return the bit masks of the granted privileges, or <code>null</code> if some authority is not
+     *         a plain privilege of a known type
+     */
+    private static long[] masks(Authority[] authorities) {
+        long[] masks = new long[PRIVILEGE_TYPES.length];
+        for (Authority authority : authorities) {
+            String value = authority.getAuthority();
+            int separator = value == null ? -1 : value.indexOf(' ');
+            if (separator < 0 || value.indexOf(' ', separator + 1) >= 0) {
+                return null;
+            }
+            int type = indexOf(value.substring(0, separator));
+            if (type < 0) {
+                return null;
+            }
+            String name = value.substring(separator + 1);
+            Object[] privileges = PRIVILEGE_TYPES[type].getEnumConstants();
+            int ordinal = -1;
+            for (int i = 0; i < privileges.length; i++) {
+                if (((Enum<?>) privileges[i]).name().equals(name)) {
+                    ordinal = i;
+                    break;
+                }
+            }
+            if (ordinal < 0 || ordinal >= Long.SIZE) {
+                return null;
+            }
+            masks[type] |= 1L << ordinal;
+        }
+        return masks;
+    }
+
+    private static int indexOf(String typeName) {
+        for (int i = 0; i < PRIVILEGE_TYPES.length; i++) {
+            if (PRIVILEGE_TYPES[i].getSimpleName().equals(typeName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean isGranted(Privilege privilege) {
+        if (masks == null) {
+            return super.isGranted(privilege);
+        }
+        if (!(privilege instanceof Enum)) {
+            return false;
+        }
+        Enum<?> constant = (Enum<?>) privilege;
+        Class<?> type = constant.getDeclaringClass();
+        for (int i = 0; i < PRIVILEGE_TYPES.length; i++) {
+            if (PRIVILEGE_TYPES[i] == type) {
+                return constant.ordinal() < Long.SIZE && (masks[i] & (1L << constant.ordinal())) != 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the authorities; must not be modified
+     */
+    Authority[] getAuthorities() {
+        return authorities;
+    }
+
+    /**
+     * @return whether privilege checks are precomputed
+     */
+    boolean isPrecomputed() {
+        return masks != null;
+    }
+
+    private Object writeReplace() {
+        return new GrantedAuthorities(authorities);
+    }
+}
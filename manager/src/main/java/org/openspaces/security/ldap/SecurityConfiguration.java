@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.authentication.AuthenticationManager;
+
+/**
+ * An immutable set of the beans {@link ActiveDirectorySpringSecurityManager} uses, loaded from one
+ * version of the Spring security configuration. A reload replaces the whole configuration at once,
+ * so an authentication never sees an authentication manager and group map of different versions.
+ * <p>
+ * A configuration is reference counted: each authentication {@link #acquire() acquires} it for its
+ * duration, and the application context is closed once the configuration is {@link #retire()
+ * retired} and the last authentication using it has completed.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+final class SecurityConfiguration {
+
+    private final ApplicationContext applicationContext;
+    private final AuthenticationManager authenticationManager;
+    private final ActiveDirectoryGroupMapper groupMapper;
+    private final CompiledGroupMap compiledGroupMap;
+    private final ActiveDirectoryGroupHierarchy groupHierarchy;
+    private final DomainRouter domainRouter;
+
+    /** Authentications in progress, plus one while this is the current configuration */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    SecurityConfiguration(ApplicationContext applicationContext, AuthenticationManager authenticationManager,
+            ActiveDirectoryGroupMapper groupMapper, ActiveDirectoryGroupHierarchy groupHierarchy) {
+        this(applicationContext, authenticationManager, groupMapper, compile(groupMapper), groupHierarchy);
+    }
+
+    /**
+     * @param compiledGroupMap the group map of the group mapper, already compiled
+     */
+    SecurityConfiguration(ApplicationContext applicationContext, AuthenticationManager authenticationManager,
+            ActiveDirectoryGroupMapper groupMapper, CompiledGroupMap compiledGroupMap, ActiveDirectoryGroupHierarchy groupHierarchy) {
+        this(applicationContext, authenticationManager, groupMapper, compiledGroupMap, groupHierarchy, null);
+    }
+
+    /**
+     * @param domainRouter routes authentications to several domains instead of the authentication
+     *            manager, or <code>null</code>
+     */
+    SecurityConfiguration(ApplicationContext applicationContext, AuthenticationManager authenticationManager,
+            ActiveDirectoryGroupMapper groupMapper, CompiledGroupMap compiledGroupMap, ActiveDirectoryGroupHierarchy groupHierarchy,
+            DomainRouter domainRouter) {
+        this.applicationContext = applicationContext;
+        this.authenticationManager = authenticationManager;
+        this.groupMapper = groupMapper;
+        this.compiledGroupMap = compiledGroupMap;
+        this.groupHierarchy = groupHierarchy;
+        this.domainRouter = domainRouter;
+    }
+
+    static CompiledGroupMap compile(ActiveDirectoryGroupMapper groupMapper) {
+        return GroupMapperAuthorityFactory.compile(groupMapper == null ? null : groupMapper.getGroupMap());
+    }
+
+    SecurityConfiguration withApplicationContext(ApplicationContext applicationContext) {
+        return new SecurityConfiguration(applicationContext, authenticationManager, groupMapper, compiledGroupMap, groupHierarchy, domainRouter);
+    }
+
+    SecurityConfiguration withAuthenticationManager(AuthenticationManager authenticationManager) {
+        return new SecurityConfiguration(applicationContext, authenticationManager, groupMapper, compiledGroupMap, groupHierarchy, domainRouter);
+    }
+
+    SecurityConfiguration withGroupMapper(ActiveDirectoryGroupMapper groupMapper) {
+        return new SecurityConfiguration(applicationContext, authenticationManager, groupMapper, compile(groupMapper), groupHierarchy,
+                domainRouter);
+    }
+
+    SecurityConfiguration withGroupHierarchy(ActiveDirectoryGroupHierarchy groupHierarchy) {
+        return new SecurityConfiguration(applicationContext, authenticationManager, groupMapper, compiledGroupMap, groupHierarchy, domainRouter);
+    }
+
+    SecurityConfiguration withDomainRouter(DomainRouter domainRouter) {
+        return new SecurityConfiguration(applicationContext, authenticationManager, groupMapper, compiledGroupMap, groupHierarchy, domainRouter);
+    }
+
+    /**
+     * @return <code>false</code> if this configuration has already been closed
+     */
+    boolean acquire() {
+        for (;;) {
+            int current = references.get();
+            if (current == 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Marks this configuration as no longer current; it is closed once no authentication uses it.
+     */
+    void retire() {
+        release();
+    }
+
+    private void close() {
+        if (applicationContext instanceof ConfigurableApplicationContext) {
+            ((ConfigurableApplicationContext) applicationContext).close();
+        }
+    }
+
+    ApplicationContext getApplicationContext() {
+        return applicationContext;
+    }
+
+    AuthenticationManager getAuthenticationManager() {
+        return authenticationManager;
+    }
+
+    ActiveDirectoryGroupMapper getGroupMapper() {
+        return groupMapper;
+    }
+
+    CompiledGroupMap getCompiledGroupMap() {
+        return compiledGroupMap;
+    }
+
+    /**
+     * @return the current nested group snapshot, or <code>null</code> if nested groups are not resolved
+     */
+    GroupHierarchy getGroupHierarchy() {
+        return groupHierarchy == null ? null : groupHierarchy.getHierarchy();
+    }
+
+    ActiveDirectoryGroupHierarchy getActiveDirectoryGroupHierarchy() {
+        return groupHierarchy;
+    }
+
+    /**
+     * @return the router to the configured domains, or <code>null</code> if the configuration
+     *         authenticates with its authentication manager
+     */
+    DomainRouter getDomainRouter() {
+        return domainRouter;
+    }
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.AuthenticationException;
+
+/**
+ * Thrown when a user reached the maximum number of failed authentications within the window of
+ * the {@link FailedAttemptLimiter}; the user is rejected without contacting Active Directory.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+class TooManyFailedAttemptsException extends AuthenticationException {
+
+    private static final long serialVersionUID = 1L;
+
+    TooManyFailedAttemptsException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,132 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authority;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ActiveDirectoryGroupHierarchyTest {
+
+    private static final String DOMAIN = "ldap-xap.gs.com";
+
+    private InMemoryActiveDirectory directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new InMemoryActiveDirectory(DOMAIN);
+        directory.addGroup("Cache_Users");
+        directory.addGroup("Cache_Users_EU", "Cache_Users");
+        directory.addGroup("Team_A", "Cache_Users_EU");
+        directory.addUser("testuser", "1234Pass", "Team_A");
+        directory.start();
+    }
+
+    @After
+    public void tearDown() {
+        directory.shutdown();
+    }
+
+    @Test
+    public void testNestedGroupsMapped() {
+        ActiveDirectoryGroupHierarchy groupHierarchy = new ActiveDirectoryGroupHierarchy(DOMAIN, directory.getUrl());
+        groupHierarchy.setRefreshInterval(0);
+        groupHierarchy.start(new HashSet<String>(Arrays.asList("Cache_Users")));
+
+        assertEquals(Arrays.asList("Cache_Users"), Arrays.asList(groupHierarchy.getHierarchy().getMappedAncestors("Team_A")));
+
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("Cache_Users", "SpacePrivilege READ");
+        List<GrantedAuthority> memberOf = Collections.<GrantedAuthority>singletonList(new SimpleGrantedAuthority("Team_A"));
+        CompiledGroupMap compiled = GroupMapperAuthorityFactory.compile(groupMap);
+
+        assertEquals(0, GroupMapperAuthorityFactory.create(memberOf, compiled).length);
+        Authority[] authorities = GroupMapperAuthorityFactory.create(memberOf, compiled, groupHierarchy.getHierarchy());
+        assertEquals(1, authorities.length);
+        assertEquals("SpacePrivilege READ", authorities[0].getAuthority());
+        groupHierarchy.destroy();
+    }
+
+    @Test
+    public void testMappedGroupsOnlyProviderMatchesNestedGroups() {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("Cache_Users", "SpacePrivilege READ");
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        groupMapper.setGroupMap(groupMap);
+        PooledActiveDirectoryLdapAuthenticationProvider provider = new PooledActiveDirectoryLdapAuthenticationProvider(DOMAIN,
+                new String[] { directory.getUrl() });
+        provider.setGroupMapper(groupMapper);
+        provider.afterPropertiesSet();
+        ActiveDirectoryGroupHierarchy groupHierarchy = new ActiveDirectoryGroupHierarchy(DOMAIN, directory.getUrl());
+
+        ActiveDirectorySpringSecurityManager manager = new ActiveDirectorySpringSecurityManager();
+        manager.setAuthenticationManager(new ProviderManager(Collections.<AuthenticationProvider>singletonList(provider)));
+        assertFalse(provider.isNestedGroups());
+        // directly mapped groups alone would hide Team_A and Cache_Users_EU from the hierarchy
+        manager.setGroupHierarchy(groupHierarchy);
+        assertTrue(provider.isNestedGroups());
+        manager.close();
+    }
+
+    @Test
+    public void testNestedGroupsMappedByPattern() {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("cache_users_*", "SpacePrivilege READ");
+        CompiledGroupMap compiled = GroupMapperAuthorityFactory.compile(groupMap);
+        ActiveDirectoryGroupHierarchy groupHierarchy = new ActiveDirectoryGroupHierarchy(DOMAIN, directory.getUrl());
+        groupHierarchy.setRefreshInterval(0);
+        groupHierarchy.start(compiled);
+
+        assertEquals(Arrays.asList("Cache_Users_EU"), Arrays.asList(groupHierarchy.getHierarchy().getMappedAncestors("Team_A")));
+        List<GrantedAuthority> memberOf = Collections.<GrantedAuthority>singletonList(new SimpleGrantedAuthority("Team_A"));
+        Authority[] authorities = GroupMapperAuthorityFactory.create(memberOf, compiled, groupHierarchy.getHierarchy());
+        assertEquals(1, authorities.length);
+        assertEquals("SpacePrivilege READ", authorities[0].getAuthority());
+        groupHierarchy.destroy();
+    }
+
+    @Test
+    public void testIncrementalRefresh() throws Exception {
+        for (String group : Arrays.asList("Cache_Users", "Cache_Users_EU", "Team_A")) {
+            setUsn(group, "1");
+        }
+        ActiveDirectoryGroupHierarchy groupHierarchy = new ActiveDirectoryGroupHierarchy(DOMAIN, directory.getUrl());
+        groupHierarchy.setRefreshInterval(0);
+        groupHierarchy.start(new HashSet<String>(Arrays.asList("Cache_Users")));
+        assertNull(groupHierarchy.getHierarchy().getMappedAncestors("Team_B"));
+
+        directory.addGroup("Team_B", "Cache_Users");
+        setUsn("Team_B", "2");
+        setUsn("Cache_Users", "2");
+        groupHierarchy.refresh();
+
+        assertEquals(Arrays.asList("Cache_Users"), Arrays.asList(groupHierarchy.getHierarchy().getMappedAncestors("Team_B")));
+        assertEquals(Arrays.asList("Cache_Users"), Arrays.asList(groupHierarchy.getHierarchy().getMappedAncestors("Team_A")));
+    }
+
+    private void setUsn(String group, String usn) throws Exception {
+        directory.getServer().modify(directory.groupDn(group), new Modification(ModificationType.REPLACE, "uSNChanged", usn));
+    }
+
+    @Test
+    public void testUnreachableDirectoryResolvesDirectMembershipOnly() {
+        ActiveDirectoryGroupHierarchy groupHierarchy = new ActiveDirectoryGroupHierarchy(DOMAIN, "ldap://localhost:1");
+        groupHierarchy.setRefreshInterval(0);
+        groupHierarchy.start(new HashSet<String>(Arrays.asList("Cache_Users")));
+        assertEquals(0, groupHierarchy.getHierarchy().size());
+    }
+}
@@ -0,0 +1,147 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.AuthenticationException;
+import com.gigaspaces.security.directory.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncAuthenticationTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private ActiveDirectorySpringSecurityManager manager;
+
+    @Before
+    public void setUp() {
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put("Cache_Users", "SpacePrivilege READ");
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        groupMapper.setGroupMap(groupMap);
+
+        manager = new ActiveDirectorySpringSecurityManager();
+        manager.setGroupMapper(groupMapper);
+        manager.setAuthenticationThreads(1);
+        manager.setAuthenticationQueueSize(1);
+        manager.setAuthenticationManager(new AuthenticationManager() {
+            public Authentication authenticate(Authentication authentication) {
+                if (authentication.getPrincipal().equals("slow")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return new UsernamePasswordAuthenticationToken(authentication.getPrincipal(), authentication.getCredentials(),
+                        AuthorityUtils.createAuthorityList("Cache_Users"));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        manager.close();
+    }
+
+    @Test
+    public void testAuthenticateAsync() throws Exception {
+        AuthenticationFuture future = manager.authenticateAsync(new User("user", "password"), 0, TimeUnit.MILLISECONDS);
+        assertEquals("user", future.get().getUserDetails().getUsername());
+        assertEquals(1, manager.getMetrics().getSuccessCount());
+    }
+
+    @Test
+    public void testTimeout() {
+        manager.setAuthenticationTimeout(100);
+        try {
+            manager.authenticate(new User("slow", "password"));
+            fail("expected the authentication to time out");
+        } catch (AuthenticationException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("timed out"));
+        }
+        assertEquals(1, manager.getMetrics().getTimeoutCount());
+
+        // the interrupted authentication thread is available again
+        release.countDown();
+        assertEquals("user", manager.authenticate(new User("user", "password")).getUserDetails().getUsername());
+    }
+
+    @Test
+    public void testRejectWhenSaturated() throws Exception {
+        AuthenticationFuture running = manager.authenticateAsync(new User("slow", "password"), 0, TimeUnit.MILLISECONDS);
+        AuthenticationFuture queued = manager.authenticateAsync(new User("user", "password"), 0, TimeUnit.MILLISECONDS);
+        awaitRunning();
+        AuthenticationFuture rejected = manager.authenticateAsync(new User("other", "password"), 0, TimeUnit.MILLISECONDS);
+        assertTrue(rejected.isDone());
+        try {
+            rejected.get();
+            fail("expected the authentication to be rejected");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1, manager.getMetrics().getRejectedCount());
+
+        release.countDown();
+        assertNotNull(running.get());
+        assertNotNull(queued.get());
+    }
+
+    @Test
+    public void testCancelQueued() throws Exception {
+        AuthenticationFuture running = manager.authenticateAsync(new User("slow", "password"), 0, TimeUnit.MILLISECONDS);
+        AuthenticationFuture queued = manager.authenticateAsync(new User("user", "password"), 0, TimeUnit.MILLISECONDS);
+        awaitRunning();
+        assertTrue(queued.cancel(false));
+        assertEquals(1, manager.getMetrics().getCancelledCount());
+
+        // the queue has room again
+        AuthenticationFuture next = manager.authenticateAsync(new User("other", "password"), 0, TimeUnit.MILLISECONDS);
+        release.countDown();
+        assertNotNull(running.get());
+        assertNotNull(next.get());
+        try {
+            queued.get();
+            fail("expected the authentication to be cancelled");
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void testExpiredWhileQueued() throws Exception {
+        AuthenticationFuture running = manager.authenticateAsync(new User("slow", "password"), 0, TimeUnit.MILLISECONDS);
+        AuthenticationFuture queued = manager.authenticateAsync(new User("user", "password"), 50, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+        release.countDown();
+        assertNotNull(running.get());
+        try {
+            queued.get();
+            fail("expected the authentication to expire");
+        } catch (CancellationException expected) {
+            assertTrue(queued.isExpired());
+        }
+        assertEquals(1, manager.getMetrics().getTimeoutCount());
+        assertEquals(1, manager.getMetrics().getSuccessCount());
+    }
+
+    private void awaitRunning() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (manager.getInFlightAuthentications().getInFlightCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authentication;
+import com.gigaspaces.security.AuthenticationException;
+import com.gigaspaces.security.Authority;
+import com.gigaspaces.security.AuthorityFactory;
+import com.gigaspaces.security.directory.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class AuthenticationAuditLogTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("audit", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testAuthenticationsAreLogged() throws Exception {
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put("Cache_Users", "SpacePrivilege READ");
+        groupMap.put("Cache_*", "SpacePrivilege WRITE");
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        groupMapper.setGroupMap(groupMap);
+
+        File file = new File(directory, "audit.log");
+        ActiveDirectorySpringSecurityManager manager = new ActiveDirectorySpringSecurityManager();
+        manager.setGroupMapper(groupMapper);
+        manager.setAuditLog(new AuthenticationAuditLog(file, 1024 * 1024, 2, 64));
+        manager.setAuthenticationManager(new AuthenticationManager() {
+            public org.springframework.security.core.Authentication authenticate(org.springframework.security.core.Authentication authentication) {
+                if (!authentication.getCredentials().equals("password")) {
+                    throw new BadCredentialsException("Bad credentials");
+                }
+                return new UsernamePasswordAuthenticationToken(authentication.getPrincipal(), authentication.getCredentials(),
+                        AuthorityUtils.createAuthorityList("Cache_Users", "Cache_Admins", "Domain Users"));
+            }
+        });
+        try {
+            manager.authenticate(new User("CORP\\user", "password"));
+            try {
+                manager.authenticate(new User("user", "wrong"));
+                fail("expected the authentication to fail");
+            } catch (AuthenticationException expected) {
+            }
+        } finally {
+            manager.close();
+        }
+
+        List<String> lines = readLines(file);
+        assertEquals(2, lines.size());
+        String[] success = lines.get(0).split("\t", -1);
+        assertEquals(6, success.length);
+        assertTrue(success[0], success[0].matches("\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z"));
+        assertEquals("OK", success[1]);
+        assertTrue(Long.parseLong(success[2]) >= 0);
+        assertEquals("CORP\\\\user", success[3]);
+        assertEquals("Cache_Users,Cache_Admins", success[4]);
+        assertEquals(new HashSet<String>(Arrays.asList("SpacePrivilege READ", "SpacePrivilege WRITE")),
+                new HashSet<String>(Arrays.asList(success[5].split(","))));
+
+        String[] failure = lines.get(1).split("\t", -1);
+        assertEquals("BadCredentialsException", failure[1]);
+        assertEquals("user", failure[3]);
+        assertEquals("", failure[4]);
+        assertEquals("", failure[5]);
+        assertEquals(2, manager.getAuditLog().getWrittenCount());
+        assertEquals(0, manager.getAuditLog().getDroppedCount());
+    }
+
+    @Test
+    public void testRollOver() throws Exception {
+        File file = new File(directory, "audit.log");
+        AuthenticationAuditLog auditLog = new AuthenticationAuditLog(file, 200, 3, 1024);
+        Authentication authentication = new Authentication(new User("user", "password", AuthorityFactory.create("SpacePrivilege READ")));
+        for (int i = 0; i < 20; i++) {
+            assertTrue(auditLog.record("user" + i, authentication, null, 1000));
+        }
+        auditLog.close();
+
+        assertEquals(20, auditLog.getWrittenCount());
+        assertTrue(file.length() <= 200);
+        assertTrue(new File(directory, "audit.log.1").isFile());
+        assertTrue(new File(directory, "audit.log.2").isFile());
+        assertFalse(new File(directory, "audit.log.3").exists());
+        assertTrue(readLines(file).get(readLines(file).size() - 1).contains("\tuser19\t"));
+        assertFalse(auditLog.record("user", authentication, null, 1000));
+    }
+
+    @Test
+    public void testFullBufferDropsEvents() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(5));
+        for (int expected : new int[] { 1, 2, 3, 5 }) {
+            assertEquals(Integer.valueOf(expected), buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int perProducer = 100000;
+        final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(1024);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int offset = p * perProducer;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(offset + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        BitSet received = new BitSet(producers * perProducer);
+        int count = 0;
+        while (count < producers * perProducer) {
+            Integer value = buffer.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            assertFalse("received twice: " + value, received.get(value));
+            received.set(value);
+            count++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(producers * perProducer, received.cardinality());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testEventsRecordedWhileClosingAreAccountedFor() throws Exception {
+        File file = new File(directory, "audit.log");
+        final AuthenticationAuditLog auditLog = new AuthenticationAuditLog(file, 1024 * 1024 * 1024, 1, 1 << 16);
+        final AtomicLong accepted = new AtomicLong();
+        final CountDownLatch started = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < 4; p++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; i < 5000; i++) {
+                        if (auditLog.record("user", null, BadCredentialsException.class, 1000)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        started.await();
+        auditLog.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(accepted.get(), auditLog.getWrittenCount() + auditLog.getDroppedCount());
+        assertEquals(auditLog.getWrittenCount(), readLines(file).size());
+    }
+
+    @Test
+    public void testAuthenticatedUserIsSerializedAsUser() throws Exception {
+        Authority authority = AuthorityFactory.create("SpacePrivilege READ");
+        AuthenticatedUser user = new AuthenticatedUser("user", "password", new String[] { "Cache_Users" }, authority);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(new Authentication(user));
+        output.close();
+        Authentication read = (Authentication) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        assertEquals(User.class, read.getUserDetails().getClass());
+        assertEquals("user", read.getUserDetails().getUsername());
+        assertEquals("SpacePrivilege READ", read.getUserDetails().getAuthorities()[0].getAuthority());
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
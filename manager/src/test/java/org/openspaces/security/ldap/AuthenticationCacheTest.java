@@ -0,0 +1,234 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authentication;
+import com.gigaspaces.security.Authority;
+import com.gigaspaces.security.AuthorityFactory;
+import com.gigaspaces.security.directory.User;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AuthenticationCacheTest {
+
+    private CredentialDigester digester;
+
+    @Before
+    public void setUp() {
+        digester = new CredentialDigester();
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        AuthenticationCache cache = new AuthenticationCache(60000, 10);
+        Authentication authentication = authentication("user");
+        cache.put(digester.digest("user", "password"), authentication);
+
+        assertSame(authentication, cache.get(digester.digest("user", "password")));
+        assertNull(cache.get(digester.digest("user", "wrong-password")));
+        assertNull(cache.get(digester.digest("other", "password")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testDigestIsSalted() {
+        CredentialDigester other = new CredentialDigester();
+        assertEquals(digester.digest("user", "password"), digester.digest("user", "password"));
+        assertFalse(digester.digest("user", "password").equals(other.digest("user", "password")));
+        assertEquals(digester.digest("user", "password"), new CredentialDigester(digester.getSalt()).digest("user", "password"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        AuthenticationCache cache = new AuthenticationCache(1, 10);
+        CredentialKey key = digester.digest("user", "password");
+        cache.put(key, authentication("user"));
+        Thread.sleep(20);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        AuthenticationCache cache = new AuthenticationCache(60000, 2);
+        CredentialKey first = digester.digest("first", "password");
+        CredentialKey second = digester.digest("second", "password");
+        CredentialKey third = digester.digest("third", "password");
+        cache.put(first, authentication("first"));
+        cache.put(second, authentication("second"));
+        cache.get(first);
+        cache.put(third, authentication("third"));
+
+        assertNotNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(third));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testInvalidate() {
+        AuthenticationCache cache = new AuthenticationCache(60000, 10);
+        cache.put(digester.digest("user", "old-password"), authentication("user"));
+        cache.put(digester.digest("user", "new-password"), authentication("user"));
+        cache.put(digester.digest("other", "password"), authentication("other"));
+
+        cache.invalidate("user");
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(digester.digest("other", "password")));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStaleness() throws InterruptedException {
+        AuthenticationCache cache = new AuthenticationCache(1, 10, 60000);
+        CredentialKey key = digester.digest("user", "password");
+        cache.put(key, authentication("user"));
+        Thread.sleep(20);
+
+        AuthenticationCache.Entry entry = cache.getEntry(key);
+        assertNotNull(entry);
+        assertTrue(entry.isStale());
+        assertTrue(entry.startRefresh());
+        assertFalse(entry.startRefresh());
+        assertEquals(1, cache.getStaleHitCount());
+
+        cache.put(key, authentication("user"));
+        cache.remove(key, entry);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        AuthenticationCache cache = new AuthenticationCache(60000, 10);
+        Authority[] authorities = { AuthorityFactory.create("SpacePrivilege READ"), AuthorityFactory.create("GridPrivilege MANAGE_PU") };
+        CredentialKey key = digester.digest("user", "password");
+        cache.put(key, new Authentication(new User("user", "password", authorities)), "password");
+        cache.put(digester.digest("other", "password"), authentication("other"), "password");
+        // cached without a verifier, so not saved
+        cache.put(digester.digest("unsaved", "password"), authentication("unsaved"));
+
+        File file = File.createTempFile("authentication-cache", ".snapshot");
+        try {
+            assertEquals(2, AuthenticationCacheSnapshot.write(file, cache));
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+            byte[] content = readFile(file);
+            assertFalse(contains(content, key.getDigest()));
+            assertFalse(contains(content, digester.getSalt()));
+
+            AuthenticationCache restored = new AuthenticationCache(60000, 10);
+            assertEquals(2, AuthenticationCacheSnapshot.read(file, restored));
+            assertEquals(2, restored.size());
+
+            // the digests of a restarted security manager use a new salt
+            CredentialDigester restartedDigester = new CredentialDigester();
+            assertNull(restored.getEntry(restartedDigester.digest("user", "wrong-password"), "wrong-password"));
+            CredentialKey restartedKey = restartedDigester.digest("user", "password");
+            assertNull(restored.getEntry(restartedKey));
+
+            AuthenticationCache.Entry entry = restored.getEntry(restartedKey, "password");
+            assertTrue(entry.isRestored());
+            assertTrue(entry.isStale());
+            Authority[] restoredAuthorities = entry.getAuthentication().getUserDetails().getAuthorities();
+            assertEquals(2, restoredAuthorities.length);
+            assertEquals("SpacePrivilege READ", restoredAuthorities[0].getAuthority());
+            assertEquals("GridPrivilege MANAGE_PU", restoredAuthorities[1].getAuthority());
+            assertNull(entry.getAuthentication().getUserDetails().getPassword());
+
+            // verified once, then found by the new digest
+            assertSame(entry, restored.getEntry(restartedKey));
+            assertEquals(2, restored.size());
+            assertEquals(2, AuthenticationCacheSnapshot.write(file, restored));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRestoredEntriesCountTowardsMaxSize() {
+        AuthenticationCache cache = new AuthenticationCache(60000, 2);
+        PasswordVerifier verifier = PasswordVerifier.create("password");
+        assertTrue(cache.restore("restored", verifier, authentication("restored"), 0));
+        cache.put(digester.digest("user", "password"), authentication("user"));
+        assertFalse(cache.restore("other", verifier, authentication("other"), 0));
+
+        // the restored entry makes room first
+        cache.put(digester.digest("other", "password"), authentication("other"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(cache.hasRestoredEntries("restored"));
+        assertNotNull(cache.getEntry(digester.digest("user", "password")));
+    }
+
+    @Test
+    public void testSnapshotSkipsExpiredEntries() throws Exception {
+        AuthenticationCache cache = new AuthenticationCache(60000, 10);
+        cache.put(digester.digest("user", "password"), authentication("user"), "password");
+        File file = File.createTempFile("authentication-cache", ".snapshot");
+        try {
+            assertEquals(1, AuthenticationCacheSnapshot.write(file, cache));
+            Thread.sleep(20);
+            AuthenticationCache restored = new AuthenticationCache(1, 10);
+            assertEquals(0, AuthenticationCacheSnapshot.read(file, restored));
+            assertEquals(0, restored.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPasswordVerifier() {
+        PasswordVerifier verifier = PasswordVerifier.create("password");
+        assertTrue(verifier.matches("password"));
+        assertFalse(verifier.matches("Password"));
+        assertFalse(verifier.matches(null));
+        assertFalse(Arrays.equals(verifier.getSalt(), PasswordVerifier.create("password").getSalt()));
+        assertNull(PasswordVerifier.create(""));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptSnapshot() throws Exception {
+        File file = File.createTempFile("authentication-cache", ".snapshot");
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            output.write(new byte[] { 1, 2, 3, 4, 5, 6 });
+            output.close();
+            AuthenticationCacheSnapshot.read(file, new AuthenticationCache(60000, 10));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            input.readFully(content);
+        } finally {
+            input.close();
+        }
+        return content;
+    }
+
+    private static boolean contains(byte[] content, byte[] bytes) {
+        for (int i = 0; i + bytes.length <= content.length; i++) {
+            if (Arrays.equals(bytes, Arrays.copyOfRange(content, i, i + bytes.length))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Authentication authentication(String username) {
+        return new Authentication(new User(username, "password", new Authority[0]));
+    }
+}
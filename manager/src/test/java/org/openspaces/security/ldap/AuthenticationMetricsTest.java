@@ -0,0 +1,144 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.AuthenticationException;
+import com.gigaspaces.security.directory.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+
+public class AuthenticationMetricsTest {
+
+    private ActiveDirectorySpringSecurityManager manager;
+
+    @Before
+    public void setUp() {
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put("Cache_Users", "SpacePrivilege READ");
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        groupMapper.setGroupMap(groupMap);
+
+        manager = new ActiveDirectorySpringSecurityManager();
+        manager.setGroupMapper(groupMapper);
+        manager.setAuthenticationManager(new AuthenticationManager() {
+            public Authentication authenticate(Authentication authentication) {
+                String password = (String) authentication.getCredentials();
+                if (password.equals("bad")) {
+                    throw new BadCredentialsException("bad credentials");
+                }
+                if (password.equals("down")) {
+                    throw new AuthenticationServiceException("no domain controller available");
+                }
+                return new UsernamePasswordAuthenticationToken(authentication.getPrincipal(), password,
+                        AuthorityUtils.createAuthorityList(password.equals("unmapped") ? "Other_Users" : "Cache_Users"));
+            }
+        });
+    }
+
+    @Test
+    public void testFailureCauses() {
+        manager.authenticate(new User("user", "good"));
+        authenticateAndFail("bad");
+        authenticateAndFail("down");
+        authenticateAndFail("unmapped");
+
+        AuthenticationMetrics metrics = manager.getMetrics();
+        assertEquals(4, metrics.getAuthenticationCount());
+        assertEquals(1, metrics.getSuccessCount());
+        assertEquals(3, metrics.getFailureCount());
+        assertEquals(1, metrics.getBadCredentialsCount());
+        assertEquals(1, metrics.getTransportFailureCount());
+        assertEquals(1, metrics.getNoMappedAuthorityCount());
+        assertEquals(0, metrics.getOtherFailureCount());
+        assertEquals(4, metrics.getBindCount());
+        assertEquals(2, metrics.getGroupMappingCount());
+        assertEquals(4, metrics.getAuthenticationTime().getCount());
+    }
+
+    @Test
+    public void testCacheHits() {
+        manager.setAuthenticationCache(new AuthenticationCache(60000, 10));
+        manager.authenticate(new User("user", "good"));
+        manager.authenticate(new User("user", "good"));
+
+        AuthenticationMetrics metrics = manager.getMetrics();
+        assertEquals(1, metrics.getCacheHitCount());
+        assertEquals(1, metrics.getCacheMissCount());
+        assertEquals(1, metrics.getBindCount());
+        assertEquals(2, metrics.getSuccessCount());
+    }
+
+    @Test
+    public void testMetricsMBean() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(ActiveDirectorySpringSecurityManager.SPRING_SECURITY_CONFIG_LOCATION, "classpath:ldap-security-config-test.xml");
+        ActiveDirectorySpringSecurityManager initialized = new ActiveDirectorySpringSecurityManager();
+        initialized.init(properties);
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name;
+        try {
+            initialized.getMetrics().recordSuccess(TimeUnit.MILLISECONDS.toNanos(1));
+            initialized.getMetrics().recordGroupMapping(TimeUnit.MICROSECONDS.toNanos(1));
+            Set<ObjectName> names = mbeanServer.queryNames(new ObjectName("org.openspaces.security.ldap:type=AuthenticationMetrics,*"), null);
+            assertEquals(1, names.size());
+            name = names.iterator().next();
+            assertEquals(1L, mbeanServer.getAttribute(name, "SuccessCount"));
+            assertEquals(1L, mbeanServer.getAttribute(name, "GroupMappingCount"));
+        } finally {
+            initialized.close();
+        }
+        assertFalse(mbeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(500.5, histogram.getMeanMicros(), 0.001);
+        assertWithinBucket(500, histogram.getPercentileMicros(50));
+        assertWithinBucket(990, histogram.getPercentileMicros(99));
+        assertEquals(1000, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, (1L << 40) - 1 }) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            assertTrue(index == 0 || value > LatencyHistogram.bucketUpperBound(index - 1));
+        }
+    }
+
+    private void authenticateAndFail(String password) {
+        try {
+            manager.authenticate(new User("user", password));
+            fail("expected authentication to fail");
+        } catch (AuthenticationException expected) {
+        }
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.13);
+    }
+}
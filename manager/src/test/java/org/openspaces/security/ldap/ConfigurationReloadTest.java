@@ -0,0 +1,138 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authentication;
+import com.gigaspaces.security.directory.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class ConfigurationReloadTest {
+
+    private File configFile;
+
+    private ActiveDirectorySpringSecurityManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        configFile = File.createTempFile("ldap-security-config", ".xml");
+        writeConfig("SpacePrivilege READ");
+        Properties properties = new Properties();
+        properties.setProperty(ActiveDirectorySpringSecurityManager.SPRING_SECURITY_CONFIG_LOCATION, "file:" + configFile.getAbsolutePath());
+        properties.setProperty(ActiveDirectorySpringSecurityManager.SPRING_SECURITY_CONFIG_RELOAD_INTERVAL, "20");
+        manager = new ActiveDirectorySpringSecurityManager();
+        manager.init(properties);
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        configFile.delete();
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        assertEquals("SpacePrivilege READ", authenticate().getUserDetails().getAuthorities()[0].getAuthority());
+
+        writeConfig("SpacePrivilege WRITE");
+        awaitCount(new Count() {
+            public long get() {
+                return manager.getReloadCount();
+            }
+        });
+        assertEquals("SpacePrivilege WRITE", authenticate().getUserDetails().getAuthorities()[0].getAuthority());
+    }
+
+    @Test
+    public void testFailedReloadKeepsConfiguration() throws Exception {
+        writeConfig("NoSuchPrivilege READ");
+        awaitCount(new Count() {
+            public long get() {
+                return manager.getFailedReloadCount();
+            }
+        });
+        assertNotNull(manager.getLastReloadFailure());
+        assertEquals(0, manager.getReloadCount());
+        assertEquals("SpacePrivilege READ", authenticate().getUserDetails().getAuthorities()[0].getAuthority());
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        manager.warmUp();
+        assertEquals("SpacePrivilege READ", authenticate().getUserDetails().getAuthorities()[0].getAuthority());
+    }
+
+    @Test
+    public void testPrecompiledGroupMapIsRejectedWhenIllegal() throws Exception {
+        writeConfig("NoSuchPrivilege READ");
+        Properties properties = new Properties();
+        properties.setProperty(ActiveDirectorySpringSecurityManager.SPRING_SECURITY_CONFIG_LOCATION, "file:" + configFile.getAbsolutePath());
+        properties.setProperty(ActiveDirectorySpringSecurityManager.WARM_UP, "true");
+        ActiveDirectorySpringSecurityManager invalid = new ActiveDirectorySpringSecurityManager();
+        try {
+            invalid.init(properties);
+            fail("expected the illegal mapping to fail init");
+        } catch (RuntimeException e) {
+            // expected
+        } finally {
+            invalid.close();
+        }
+    }
+
+    private Authentication authenticate() {
+        return manager.authenticate(new User("username", "password"));
+    }
+
+    private void writeConfig(String authorities) throws IOException {
+        long previous = configFile.lastModified();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(configFile), "UTF-8");
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<beans xmlns=\"http://www.springframework.org/schema/beans\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+                    + "       xsi:schemaLocation=\"http://www.springframework.org/schema/beans http://www.springframework.org/schema/beans/spring-beans-3.0.xsd\">\n"
+                    + "    <bean id=\"authenticationManager\" class=\"" + GroupsAuthenticationManager.class.getName() + "\"/>\n"
+                    + "    <bean id=\"ldapGroupMapper\" class=\"org.openspaces.security.ldap.ActiveDirectoryGroupMapper\">\n"
+                    + "        <property name=\"groupMap\"><map><entry key=\"Cache_Users\" value=\"" + authorities + "\"/></map></property>\n"
+                    + "    </bean>\n"
+                    + "</beans>\n");
+        } finally {
+            writer.close();
+        }
+        // make sure the change is visible with a coarse file system timestamp resolution
+        configFile.setLastModified(Math.max(System.currentTimeMillis(), previous + 2000));
+    }
+
+    private static void awaitCount(Count count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (count.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, count.get());
+    }
+
+    private interface Count {
+        long get();
+    }
+
+    /**
+     * Authenticates everyone as a member of Cache_Users.
+     */
+    public static class GroupsAuthenticationManager implements AuthenticationManager {
+        public org.springframework.security.core.Authentication authenticate(org.springframework.security.core.Authentication authentication) throws AuthenticationException {
+            return new UsernamePasswordAuthenticationToken(authentication.getPrincipal(), authentication.getCredentials(),
+                    AuthorityUtils.createAuthorityList("Cache_Users"));
+        }
+    }
+}
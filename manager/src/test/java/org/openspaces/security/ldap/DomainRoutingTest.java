@@ -0,0 +1,270 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authentication;
+import com.gigaspaces.security.AuthenticationException;
+import com.gigaspaces.security.SecurityException;
+import com.gigaspaces.security.directory.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DomainRoutingTest {
+
+    private InMemoryActiveDirectory sales;
+    private InMemoryActiveDirectory ops;
+    private ActiveDirectoryDomain salesDomain;
+    private ActiveDirectoryDomain opsDomain;
+    private ActiveDirectorySpringSecurityManager manager;
+    private final CountDownLatch salesFailure = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        sales = new InMemoryActiveDirectory("sales.gs.com");
+        sales.addUser("alice", "1234Pass", "Sales_Users");
+        sales.start();
+        ops = new InMemoryActiveDirectory("ops.gs.com");
+        ops.addUser("bob", "1234Pass", "Ops_Users");
+        ops.start();
+
+        salesDomain = newDomain(new ActiveDirectoryDomain("sales.gs.com") {
+            @Override
+            void recordFailure() {
+                super.recordFailure();
+                salesFailure.countDown();
+            }
+        }, "SALES", sales, "Sales_Users", "SpacePrivilege READ");
+        opsDomain = newDomain(new ActiveDirectoryDomain("ops.gs.com"), "OPS", ops, "Ops_Users", "GridPrivilege MANAGE_PU");
+        manager = new ActiveDirectorySpringSecurityManager();
+        manager.setDomains(Arrays.asList(salesDomain, opsDomain));
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        sales.shutdown();
+        ops.shutdown();
+    }
+
+    @Test
+    public void testUpnSuffixRoutesToDomain() {
+        Authentication authentication = manager.authenticate(new User("alice@SALES.gs.com", "1234Pass"));
+        assertEquals("alice@SALES.gs.com", authentication.getUserDetails().getUsername());
+        assertEquals("SpacePrivilege READ", authentication.getUserDetails().getAuthorities()[0].getAuthority());
+        assertEquals(1, sales.getBindCount());
+        assertEquals(0, ops.getBindCount());
+    }
+
+    @Test
+    public void testNetbiosNameRoutesToDomain() {
+        Authentication authentication = manager.authenticate(new User("ops\\bob", "1234Pass"));
+        assertEquals("ops\\bob", authentication.getUserDetails().getUsername());
+        assertEquals("GridPrivilege MANAGE_PU", authentication.getUserDetails().getAuthorities()[0].getAuthority());
+        assertEquals(0, sales.getBindCount());
+        assertEquals(1, opsDomain.getSuccessCount());
+    }
+
+    @Test
+    public void testUnknownNetbiosName() {
+        try {
+            manager.authenticate(new User("HR\\bob", "1234Pass"));
+            fail("expected an unknown domain to fail");
+        } catch (AuthenticationException e) {
+            assertTrue(e.getCause() instanceof BadCredentialsException);
+        }
+        assertEquals(0, sales.getBindCount() + ops.getBindCount());
+    }
+
+    @Test
+    public void testUnqualifiedUsernameTriedInParallel() {
+        // slow enough for the attempt against the other domain to complete first
+        ops.setBindDelay(200);
+        Authentication authentication = manager.authenticate(new User("bob", "1234Pass"));
+        assertEquals("GridPrivilege MANAGE_PU", authentication.getUserDetails().getAuthorities()[0].getAuthority());
+        assertEquals(1, sales.getBindCount());
+        assertEquals(1, ops.getBindCount());
+        assertEquals(1, salesDomain.getRejectionCount());
+
+        // the domain bob authenticated with is remembered
+        ops.setBindDelay(0);
+        manager.authenticate(new User("bob", "1234Pass"));
+        assertEquals(1, sales.getBindCount());
+        assertEquals(2, ops.getBindCount());
+
+        try {
+            manager.authenticate(new User("nobody", "1234Pass"));
+            fail("expected unknown user to fail");
+        } catch (AuthenticationException e) {
+            assertTrue(e.getCause() instanceof BadCredentialsException);
+        }
+        assertEquals(2, sales.getBindCount());
+        assertEquals(3, ops.getBindCount());
+    }
+
+    @Test
+    public void testSlowDomainDoesNotDelayOthers() {
+        sales.setBindDelay(2000);
+        long startTime = System.currentTimeMillis();
+        manager.authenticate(new User("bob", "1234Pass"));
+        assertTrue(System.currentTimeMillis() - startTime < 1500);
+    }
+
+    @Test
+    public void testUnavailableDomainSkipped() {
+        sales.shutdown();
+        // bob's domain answers once the attempt against the unavailable domain failed, which
+        // otherwise could be cancelled before it started
+        final AuthenticationManager opsAuthenticationManager = opsDomain.getAuthenticationManager();
+        opsDomain.setAuthenticationManager(new AuthenticationManager() {
+            public org.springframework.security.core.Authentication authenticate(org.springframework.security.core.Authentication authentication) {
+                try {
+                    assertTrue(salesFailure.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return opsAuthenticationManager.authenticate(authentication);
+            }
+        });
+        manager.authenticate(new User("bob", "1234Pass"));
+        assertEquals(1, salesDomain.getFailureCount());
+        assertFalse(salesDomain.isAvailable());
+
+        try {
+            manager.authenticate(new User("alice", "1234Pass"));
+            fail("expected alice to fail while her domain is unavailable");
+        } catch (AuthenticationException e) {
+            // not bad credentials, since alice may belong to the skipped domain
+            assertTrue(e.getCause() instanceof AuthenticationServiceException);
+        }
+        assertEquals(1, salesDomain.getFailureCount());
+    }
+
+    @Test
+    public void testDomainsLoadedFromConfiguration() throws IOException {
+        File configFile = File.createTempFile("ldap-security-config", ".xml");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(configFile), "UTF-8");
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<beans xmlns=\"http://www.springframework.org/schema/beans\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+                    + "       xsi:schemaLocation=\"http://www.springframework.org/schema/beans http://www.springframework.org/schema/beans/spring-beans-3.0.xsd\">\n"
+                    + domainBean("sales.gs.com", "SALES", sales)
+                    + domainBean("ops.gs.com", "OPS", ops)
+                    + "    <bean id=\"ldapGroupMapper\" class=\"org.openspaces.security.ldap.ActiveDirectoryGroupMapper\">\n"
+                    + "        <property name=\"groupMap\"><map>\n"
+                    + "            <entry key=\"Sales_Users\" value=\"SpacePrivilege READ\"/>\n"
+                    + "            <entry key=\"Ops_Users\" value=\"GridPrivilege MANAGE_PU\"/>\n"
+                    + "        </map></property>\n"
+                    + "    </bean>\n"
+                    + "</beans>\n");
+        } finally {
+            writer.close();
+        }
+        Properties properties = new Properties();
+        properties.setProperty(ActiveDirectorySpringSecurityManager.SPRING_SECURITY_CONFIG_LOCATION, "file:" + configFile.getAbsolutePath());
+        ActiveDirectorySpringSecurityManager loaded = new ActiveDirectorySpringSecurityManager();
+        try {
+            loaded.init(properties);
+            assertEquals("SpacePrivilege READ", loaded.authenticate(new User("alice", "1234Pass")).getUserDetails().getAuthorities()[0].getAuthority());
+            assertEquals("GridPrivilege MANAGE_PU", loaded.authenticate(new User("OPS\\bob", "1234Pass")).getUserDetails().getAuthorities()[0].getAuthority());
+        } finally {
+            loaded.close();
+            configFile.delete();
+        }
+    }
+
+    @Test
+    public void testUnavailableRememberedDomainFallsThrough() throws Exception {
+        DomainRouter router = new DomainRouter(Arrays.asList(new DomainRouter.Route(salesDomain, null), new DomainRouter.Route(opsDomain,
+                null)));
+        final AtomicReference<ActiveDirectoryDomain> up = new AtomicReference<ActiveDirectoryDomain>(salesDomain);
+        DomainRouter.DomainAuthenticator authenticator = new DomainRouter.DomainAuthenticator() {
+            public Authentication authenticate(String username, DomainRouter.Route route) {
+                if (route.domain != up.get()) {
+                    throw route.domain == salesDomain ? new AuthenticationServiceException("sales is down")
+                            : new BadCredentialsException("not an ops user");
+                }
+                return new Authentication(new User(username + "@" + route.domain.getName(), "1234Pass"));
+            }
+        };
+        Executor sameThread = new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        assertEquals("carol@sales.gs.com", router.authenticate("carol", authenticator, sameThread).getUserDetails().getUsername());
+
+        // the remembered domain is down, so the others are tried
+        up.set(opsDomain);
+        assertEquals("carol@ops.gs.com", router.authenticate("carol", authenticator, sameThread).getUserDetails().getUsername());
+        assertFalse(salesDomain.isAvailable());
+
+        // ops is remembered now; when it rejects the user, sales is known to be down and skipped
+        up.set(null);
+        try {
+            router.authenticate("carol", authenticator, sameThread);
+            fail("expected the rejected user to fail");
+        } catch (BadCredentialsException e) {
+        }
+        try {
+            router.authenticate("carol", authenticator, sameThread);
+            fail("expected the user to fail while sales is down");
+        } catch (AuthenticationServiceException e) {
+            assertTrue(e.getCause() instanceof BadCredentialsException);
+        }
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testDuplicateNetbiosName() {
+        opsDomain.setNetbiosName("sales");
+        manager.setDomains(Arrays.asList(salesDomain, opsDomain));
+    }
+
+    private static String domainBean(String name, String netbiosName, InMemoryActiveDirectory directory) {
+        return "    <bean class=\"org.openspaces.security.ldap.ActiveDirectoryDomain\">\n"
+                + "        <constructor-arg value=\"" + name + "\"/>\n"
+                + "        <property name=\"netbiosName\" value=\"" + netbiosName + "\"/>\n"
+                + "        <property name=\"authenticationProvider\">\n"
+                + "            <bean class=\"org.openspaces.security.ldap.PooledActiveDirectoryLdapAuthenticationProvider\">\n"
+                + "                <constructor-arg value=\"" + name + "\"/>\n"
+                + "                <constructor-arg value=\"" + directory.getUrl() + "\"/>\n"
+                + "            </bean>\n"
+                + "        </property>\n"
+                + "    </bean>\n";
+    }
+
+    private static ActiveDirectoryDomain newDomain(ActiveDirectoryDomain domain, String netbiosName, InMemoryActiveDirectory directory,
+            String group, String authorities) {
+        PooledActiveDirectoryLdapAuthenticationProvider provider = new PooledActiveDirectoryLdapAuthenticationProvider(domain.getName(),
+                new String[] { directory.getUrl() });
+        provider.setConnectTimeout(1000);
+        provider.afterPropertiesSet();
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put(group, authorities);
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        groupMapper.setGroupMap(groupMap);
+
+        domain.setNetbiosName(netbiosName);
+        domain.setAuthenticationProvider(provider);
+        domain.setGroupMapper(groupMapper);
+        domain.afterPropertiesSet();
+        return domain;
+    }
+}
@@ -0,0 +1,154 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.AuthenticationException;
+import com.gigaspaces.security.directory.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FailedAuthenticationTest {
+
+    private final AtomicInteger binds = new AtomicInteger();
+
+    private ActiveDirectorySpringSecurityManager manager;
+
+    @Before
+    public void setUp() {
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put("Cache_Users", "SpacePrivilege READ");
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        groupMapper.setGroupMap(groupMap);
+
+        manager = new ActiveDirectorySpringSecurityManager();
+        manager.setGroupMapper(groupMapper);
+        manager.setAuthenticationManager(new AuthenticationManager() {
+            public Authentication authenticate(Authentication authentication) {
+                binds.incrementAndGet();
+                if (!authentication.getCredentials().equals("password")) {
+                    throw new BadCredentialsException("bad credentials");
+                }
+                return new UsernamePasswordAuthenticationToken(authentication.getPrincipal(), authentication.getCredentials(),
+                        AuthorityUtils.createAuthorityList("Cache_Users"));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Test
+    public void testFailedCredentialsAreRejectedLocally() {
+        manager.setFailedAuthenticationCache(new FailedAuthenticationCache(60000, 100));
+        authenticateAndFail("user", "stale");
+        authenticateAndFail("user", "stale");
+        authenticateAndFail("user", "stale");
+        assertEquals(1, binds.get());
+        assertEquals(2, manager.getMetrics().getFailedCacheHitCount());
+        assertEquals(3, manager.getMetrics().getBadCredentialsCount());
+
+        // other credentials of the same user still reach the directory
+        manager.authenticate(new User("user", "password"));
+        assertEquals(2, binds.get());
+
+        manager.invalidateCachedAuthentication("user");
+        authenticateAndFail("user", "stale");
+        assertEquals(3, binds.get());
+    }
+
+    @Test
+    public void testFailedCredentialsExpire() throws InterruptedException {
+        FailedAuthenticationCache cache = new FailedAuthenticationCache(50, 100);
+        CredentialKey key = new CredentialDigester().digest("user", "stale");
+        cache.put(key);
+        assertTrue(cache.contains(key));
+        Thread.sleep(100);
+        assertFalse(cache.contains(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFailedCacheIsBounded() {
+        FailedAuthenticationCache cache = new FailedAuthenticationCache(60000, 10);
+        CredentialDigester digester = new CredentialDigester();
+        for (int i = 0; i < 100; i++) {
+            cache.put(digester.digest("user" + i, "stale"));
+        }
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void testRepeatedFailuresAreLimited() {
+        manager.setFailedAttemptLimiter(new FailedAttemptLimiter(3, 60000));
+        authenticateAndFail("user", "wrong1");
+        authenticateAndFail("User", "wrong2");
+        authenticateAndFail("user", "wrong3");
+        assertEquals(3, binds.get());
+
+        // even the right password is rejected locally until the window passes
+        authenticateAndFail("user", "password");
+        assertEquals(3, binds.get());
+        assertEquals(1, manager.getMetrics().getTooManyFailedAttemptsCount());
+
+        // other users are not affected
+        manager.authenticate(new User("other", "password"));
+        assertEquals(4, binds.get());
+
+        manager.invalidateCachedAuthentication("user");
+        manager.authenticate(new User("user", "password"));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        FailedAttemptLimiter limiter = new FailedAttemptLimiter(2, 60000);
+        limiter.recordFailure("user");
+        limiter.reset("user");
+        limiter.recordFailure("user");
+        assertFalse(limiter.isLimited("user"));
+        limiter.recordFailure("USER");
+        assertTrue(limiter.isLimited("user"));
+    }
+
+    @Test
+    public void testSlidingWindow() throws InterruptedException {
+        FailedAttemptLimiter limiter = new FailedAttemptLimiter(2, 100);
+        limiter.recordFailure("user");
+        limiter.recordFailure("user");
+        assertTrue(limiter.isLimited("user"));
+        // after two full windows, no failure overlaps the sliding window any more
+        Thread.sleep(250);
+        assertFalse(limiter.isLimited("user"));
+    }
+
+    @Test
+    public void testLimiterIsBounded() {
+        FailedAttemptLimiter limiter = new FailedAttemptLimiter(1, 60000);
+        for (int i = 0; i <= FailedAttemptLimiter.MAX_TRACKED_USERS; i++) {
+            limiter.recordFailure("user" + i);
+        }
+        assertEquals(FailedAttemptLimiter.MAX_TRACKED_USERS, limiter.size());
+        // the users already being limited are kept, the one over the bound is not tracked
+        assertTrue(limiter.isLimited("user0"));
+        assertFalse(limiter.isLimited("user" + FailedAttemptLimiter.MAX_TRACKED_USERS));
+    }
+
+    private void authenticateAndFail(String username, String password) {
+        try {
+            manager.authenticate(new User(username, password));
+            fail("expected authentication to fail");
+        } catch (AuthenticationException expected) {
+        }
+    }
+}
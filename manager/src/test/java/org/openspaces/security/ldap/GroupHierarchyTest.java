@@ -0,0 +1,49 @@
+package org.openspaces.security.ldap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class GroupHierarchyTest {
+
+    @Test
+    public void testTransitiveMappedAncestors() {
+        Map<String, Collection<String>> parents = new HashMap<String, Collection<String>>();
+        parents.put("Team_A", Arrays.asList("Cache_Users_EU"));
+        parents.put("Cache_Users_EU", Arrays.asList("Cache_Users", "Europe"));
+        parents.put("Ops", Arrays.asList("Deployers", "Team_A"));
+        parents.put("Europe", Arrays.<String>asList());
+
+        GroupHierarchy hierarchy = GroupHierarchy.build(parents, groups("Cache_Users", "Deployers"));
+
+        assertEquals(groups("Cache_Users"), groups(hierarchy.getMappedAncestors("Team_A")));
+        assertEquals(groups("Cache_Users"), groups(hierarchy.getMappedAncestors("Cache_Users_EU")));
+        assertEquals(groups("Cache_Users", "Deployers"), groups(hierarchy.getMappedAncestors("Ops")));
+        assertNull(hierarchy.getMappedAncestors("Europe"));
+        assertNull(hierarchy.getMappedAncestors("Cache_Users"));
+        assertEquals(3, hierarchy.size());
+    }
+
+    @Test
+    public void testCycle() {
+        Map<String, Collection<String>> parents = new HashMap<String, Collection<String>>();
+        parents.put("A", Arrays.asList("B"));
+        parents.put("B", Arrays.asList("A", "Administrators"));
+
+        GroupHierarchy hierarchy = GroupHierarchy.build(parents, groups("Administrators"));
+
+        assertEquals(groups("Administrators"), groups(hierarchy.getMappedAncestors("A")));
+        assertEquals(groups("Administrators"), groups(hierarchy.getMappedAncestors("B")));
+    }
+
+    private static Set<String> groups(String... groups) {
+        return new HashSet<String>(Arrays.asList(groups));
+    }
+}
@@ -0,0 +1,194 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.Authority;
+import com.gigaspaces.security.SecurityException;
+import com.gigaspaces.security.authorities.GrantedAuthorities;
+import com.gigaspaces.security.authorities.GridAuthority;
+import com.gigaspaces.security.authorities.MonitorAuthority;
+import com.gigaspaces.security.authorities.Privilege;
+import com.gigaspaces.security.authorities.SpaceAuthority;
+import com.gigaspaces.security.authorities.SystemAuthority;
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GroupMapperAuthorityFactoryTest {
+
+    @Test
+    public void testCreate() {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("Deployers", "GridPrivilege MANAGE_PU, MonitorPrivilege MONITOR_PU");
+        groupMap.put("Cache_ReadOnly", "SpacePrivilege READ");
+        CompiledGroupMap compiled = GroupMapperAuthorityFactory.compile(groupMap);
+
+        Authority[] authorities = GroupMapperAuthorityFactory.create(grantedAuthorities("Users", " Cache_ReadOnly ", "Deployers"), compiled);
+        assertEquals(3, authorities.length);
+        assertEquals("GridPrivilege MANAGE_PU", authorities[0].getAuthority());
+        assertEquals("MonitorPrivilege MONITOR_PU", authorities[1].getAuthority());
+        assertEquals("SpacePrivilege READ", authorities[2].getAuthority());
+
+        assertEquals(0, GroupMapperAuthorityFactory.create(grantedAuthorities("Users"), compiled).length);
+    }
+
+    @Test
+    public void testDuplicatesRemovedAndResultShared() {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("Administrators", "MonitorPrivilege MONITOR_PU,SpacePrivilege READ,SpacePrivilege WRITE,SpacePrivilege READ");
+        groupMap.put("Cache_Users", "MonitorPrivilege MONITOR_PU,SpacePrivilege READ");
+        CompiledGroupMap compiled = GroupMapperAuthorityFactory.compile(groupMap);
+
+        Authority[] first = GroupMapperAuthorityFactory.create(grantedAuthorities("Administrators", "Users", "Cache_Users"), compiled);
+        assertEquals(3, first.length);
+        assertEquals("MonitorPrivilege MONITOR_PU", first[0].getAuthority());
+        assertEquals("SpacePrivilege READ", first[1].getAuthority());
+        assertEquals("SpacePrivilege WRITE", first[2].getAuthority());
+
+        Authority[] second = GroupMapperAuthorityFactory.create(grantedAuthorities("Cache_Users", "Domain Users", "Administrators"), compiled);
+        assertSame(first, second);
+        assertEquals(1, compiled.getMemoizedSignatureCount());
+
+        Authority[] cacheUser = GroupMapperAuthorityFactory.create(grantedAuthorities("Cache_Users"), compiled);
+        assertSame(first[0], cacheUser[0]);
+    }
+
+    @Test
+    public void testPrecomputedPrivileges() throws Exception {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("Administrators", "SpacePrivilege READ,SpacePrivilege WRITE,GridPrivilege MANAGE_PU,SystemPrivilege MANAGE_ROLES");
+        groupMap.put("Monitors", "MonitorPrivilege MONITOR_JVM,SpacePrivilege READ");
+        CompiledGroupMap compiled = GroupMapperAuthorityFactory.compile(groupMap);
+
+        PrivilegeGrantedAuthorities granted = compiled.resolveGrantedAuthorities(grantedAuthorities("Administrators", "Monitors"), null);
+        assertTrue(granted.isPrecomputed());
+        assertSame(granted, compiled.resolveGrantedAuthorities(grantedAuthorities("Monitors", "Administrators"), null));
+        GrantedAuthorities walked = new GrantedAuthorities(granted.getAuthorities());
+        List<Privilege> privileges = new ArrayList<Privilege>();
+        privileges.addAll(Arrays.asList(SpaceAuthority.SpacePrivilege.values()));
+        privileges.addAll(Arrays.asList(GridAuthority.GridPrivilege.values()));
+        privileges.addAll(Arrays.asList(MonitorAuthority.MonitorPrivilege.values()));
+        privileges.addAll(Arrays.asList(SystemAuthority.SystemPrivilege.values()));
+        for (Privilege privilege : privileges) {
+            assertEquals(privilege.toString(), walked.isGranted(privilege), granted.isGranted(privilege));
+        }
+        assertFalse(compiled.resolveGrantedAuthorities(grantedAuthorities("Users"), null).isGranted(SpaceAuthority.SpacePrivilege.READ));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(granted);
+        output.close();
+        Object read = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(GrantedAuthorities.class, read.getClass());
+        assertTrue(((GrantedAuthorities) read).isGranted(SystemAuthority.SystemPrivilege.MANAGE_ROLES));
+    }
+
+    @Test
+    public void testUnknownAuthorityIsNotPrecomputed() {
+        Authority custom = new Authority() {
+            public String getAuthority() {
+                return "SpacePrivilege READ ClassFilter com.gigaspaces.Trade";
+            }
+        };
+        PrivilegeGrantedAuthorities granted = new PrivilegeGrantedAuthorities(new Authority[] { custom });
+        assertFalse(granted.isPrecomputed());
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testIllegalAuthorityFailsOnCompile() {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("Deployers", "GridPrivilege MANAGE_PU,NoSuchPrivilege FOO");
+        GroupMapperAuthorityFactory.compile(groupMap);
+    }
+
+    @Test
+    public void testPatternRules() {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("grp-xap-*-ro", "SpacePrivilege READ");
+        groupMap.put("grp-xap-?", "SpacePrivilege WRITE");
+        groupMap.put("regex:xap-(dev|qa)-\\d+", "GridPrivilege MANAGE_PU");
+        groupMap.put("dn:OU=Cache, OU=Apps,DC=gigaspaces,DC=com", "MonitorPrivilege MONITOR_PU");
+        groupMap.put("Deployers", "GridPrivilege PROVISION_PU");
+        CompiledGroupMap compiled = GroupMapperAuthorityFactory.compile(groupMap);
+        assertTrue(compiled.hasPatterns());
+        assertEquals(1, compiled.getGroups().size());
+
+        assertAuthorities(compiled, grantedAuthorities("GRP-XAP-Trading-RO"), "SpacePrivilege READ");
+        assertAuthorities(compiled, grantedAuthorities("grp-xap--ro"), "SpacePrivilege READ");
+        assertAuthorities(compiled, grantedAuthorities("grp-xap-trading-rw", "grp-xap-ab"));
+        assertAuthorities(compiled, grantedAuthorities("grp-xap-a"), "SpacePrivilege WRITE");
+        assertAuthorities(compiled, grantedAuthorities("xap-qa-12", "xap-prod-1"), "GridPrivilege MANAGE_PU");
+        assertAuthorities(compiled, grantedAuthorities("Deployers", "grp-xap-x-ro"), "SpacePrivilege READ", "GridPrivilege PROVISION_PU");
+
+        List<GrantedAuthority> dnAuthorities = new ArrayList<GrantedAuthority>();
+        dnAuthorities.add(new ActiveDirectoryGroupAuthority("Team_A", "CN=Team_A,OU=Cache,OU=Apps,DC=gigaspaces,DC=com"));
+        dnAuthorities.add(new ActiveDirectoryGroupAuthority("Team_B", "cn=Team_B,ou=Other,ou=Apps,dc=gigaspaces,dc=com"));
+        assertAuthorities(compiled, dnAuthorities, "MonitorPrivilege MONITOR_PU");
+        dnAuthorities.set(0, new ActiveDirectoryGroupAuthority("Team_A", "cn=Team_A,ou=sub,ou=cache,ou=apps,dc=GIGASPACES,dc=com"));
+        assertAuthorities(compiled, dnAuthorities, "MonitorPrivilege MONITOR_PU");
+        // without a DN, DN rules can't match
+        assertAuthorities(compiled, grantedAuthorities("Team_A"));
+
+        assertTrue(compiled.isMapped("grp-xap-z"));
+        assertFalse(compiled.isMapped("Team_A"));
+        assertTrue(compiled.getMemoizedGroupCount() > 0);
+    }
+
+    @Test
+    public void testWildcardMatches() {
+        assertTrue(GroupRuleMatcher.wildcardMatches("a*b*c", "axxbyyc"));
+        assertTrue(GroupRuleMatcher.wildcardMatches("a*b", "abab"));
+        assertTrue(GroupRuleMatcher.wildcardMatches("*", ""));
+        assertTrue(GroupRuleMatcher.wildcardMatches("a?c*", "abc"));
+        assertFalse(GroupRuleMatcher.wildcardMatches("a*b", "abac"));
+        assertFalse(GroupRuleMatcher.wildcardMatches("a?c", "ac"));
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testDeprecatedCreateKeepsDuplicates() {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("Administrators", "MonitorPrivilege MONITOR_PU,SpacePrivilege READ");
+        groupMap.put("Cache_Users", "SpacePrivilege READ");
+        groupMap.put("regex:xap-.*", "SpacePrivilege WRITE");
+
+        List<Authority> authorities = GroupMapperAuthorityFactory.create(grantedAuthorities("Administrators", "xap-dev", " Cache_Users "), groupMap);
+        assertEquals(3, authorities.size());
+        assertEquals("MonitorPrivilege MONITOR_PU", authorities.get(0).getAuthority());
+        assertEquals("SpacePrivilege READ", authorities.get(1).getAuthority());
+        assertEquals("SpacePrivilege READ", authorities.get(2).getAuthority());
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testIllegalRegexFailsOnCompile() {
+        Map<String, String> groupMap = new LinkedHashMap<String, String>();
+        groupMap.put("regex:xap-(dev", "SpacePrivilege READ");
+        GroupMapperAuthorityFactory.compile(groupMap);
+    }
+
+    private static void assertAuthorities(CompiledGroupMap compiled, List<GrantedAuthority> grantedAuthorities, String... expected) {
+        Authority[] authorities = GroupMapperAuthorityFactory.create(grantedAuthorities, compiled);
+        assertEquals(expected.length, authorities.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], authorities[i].getAuthority());
+        }
+    }
+
+    private static List<GrantedAuthority> grantedAuthorities(String... groups) {
+        List<GrantedAuthority> grantedAuthorities = new ArrayList<GrantedAuthority>();
+        for (String group : groups) {
+            grantedAuthorities.add(new SimpleGrantedAuthority(group));
+        }
+        return grantedAuthorities;
+    }
+}
@@ -0,0 +1,240 @@
+package org.openspaces.security.ldap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+
+import static org.junit.Assert.*;
+
+public class PooledActiveDirectoryLdapAuthenticationProviderTest {
+
+    private static final String DOMAIN = "ldap-xap.gs.com";
+
+    private InMemoryActiveDirectory first;
+    private InMemoryActiveDirectory second;
+
+    @Before
+    public void setUp() throws Exception {
+        first = newDomainController();
+        second = newDomainController();
+    }
+
+    @After
+    public void tearDown() {
+        first.shutdown();
+        second.shutdown();
+    }
+
+    @Test
+    public void testAuthenticate() {
+        PooledActiveDirectoryLdapAuthenticationProvider provider = newProvider(first.getUrl());
+        Authentication authentication = provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass"));
+
+        assertTrue(authentication.isAuthenticated());
+        Set<String> groups = new HashSet<String>();
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            groups.add(authority.getAuthority());
+        }
+        assertEquals(2, groups.size());
+        assertTrue(groups.contains("Administrators"));
+        assertTrue(groups.contains("Domain Users"));
+    }
+
+    @Test(expected = BadCredentialsException.class)
+    public void testBadCredentials() {
+        newProvider(first.getUrl()).authenticate(new UsernamePasswordAuthenticationToken("testuser", "wrong"));
+    }
+
+    @Test(expected = BadCredentialsException.class)
+    public void testEmptyPasswordRejected() {
+        newProvider(first.getUrl()).authenticate(new UsernamePasswordAuthenticationToken("testuser", ""));
+    }
+
+    @Test
+    public void testConnectionsReused() {
+        PooledActiveDirectoryLdapAuthenticationProvider provider = newProvider(first.getUrl());
+        for (int i = 0; i < 5; i++) {
+            provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass"));
+            provider.authenticate(new UsernamePasswordAuthenticationToken("deployer", "1234Pass"));
+        }
+        assertEquals(1, provider.getDomainControllers()[0].getConnectionsCreated());
+        assertEquals(10, first.getBindCount());
+    }
+
+    @Test
+    public void testWarmUp() {
+        PooledActiveDirectoryLdapAuthenticationProvider provider = newProvider(first.getUrl());
+        provider.warmUp();
+        assertEquals(1, provider.getDomainControllers()[0].getIdleCount());
+        provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass"));
+        assertEquals(1, provider.getDomainControllers()[0].getConnectionsCreated());
+    }
+
+    @Test
+    public void testFailover() {
+        String unavailableUrl = second.getUrl();
+        second.shutdown();
+        PooledActiveDirectoryLdapAuthenticationProvider provider = newProvider(unavailableUrl, first.getUrl());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass")).isAuthenticated());
+        }
+        DomainController failed = provider.getDomainControllers()[0];
+        assertEquals(1, failed.getFailureCount());
+        assertFalse(failed.isAvailable(System.nanoTime()));
+    }
+
+    @Test(expected = AuthenticationServiceException.class)
+    public void testAllDomainControllersDown() {
+        PooledActiveDirectoryLdapAuthenticationProvider provider = newProvider(first.getUrl(), second.getUrl());
+        first.shutdown();
+        second.shutdown();
+        provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass"));
+    }
+
+    @Test
+    public void testRoutesToFastestDomainController() {
+        first.setBindDelay(50);
+        PooledActiveDirectoryLdapAuthenticationProvider provider = newProvider(first.getUrl(), second.getUrl());
+        for (int i = 0; i < 20; i++) {
+            provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass"));
+        }
+        assertTrue(second.getBindCount() >= 18);
+    }
+
+    @Test
+    public void testSlowerDomainControllersAreProbedInTurn() throws Exception {
+        InMemoryActiveDirectory third = newDomainController();
+        try {
+            second.setBindDelay(20);
+            third.setBindDelay(40);
+            PooledActiveDirectoryLdapAuthenticationProvider provider = newProvider(first.getUrl(), second.getUrl(), third.getUrl());
+            for (int i = 0; i < 4 * 64; i++) {
+                provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass"));
+            }
+            // sampled once while its latency was unknown, then by every other probe
+            assertTrue(String.valueOf(third.getBindCount()), third.getBindCount() >= 3);
+            assertTrue(String.valueOf(second.getBindCount()), second.getBindCount() >= 3);
+        } finally {
+            third.shutdown();
+        }
+    }
+
+    @Test
+    public void testConnectionLimit() throws Exception {
+        DomainController controller = new DomainController(first.getUrl(), 1, 1, 60000, 1000, 60000);
+        assertNull(controller.acquire(0));
+        assertEquals(1, controller.getOpenCount());
+        try {
+            controller.acquire(20);
+            fail("expected the connection limit to be reached");
+        } catch (DomainController.ConnectionLimitException expected) {
+        }
+        controller.connectionFailed();
+        assertEquals(0, controller.getOpenCount());
+
+        PooledActiveDirectoryLdapAuthenticationProvider provider = newProvider(first.getUrl());
+        provider.setMaxConnections(1);
+        provider.afterPropertiesSet();
+        for (int i = 0; i < 3; i++) {
+            provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass"));
+        }
+        assertEquals(1, provider.getDomainControllers()[0].getOpenCount());
+    }
+
+    @Test
+    public void testTimeoutDetection() {
+        assertTrue(LdapUtils.isTimeout(new NamingException("LDAP response read timed out, timeout used:10000ms.")));
+        CommunicationException connectTimeout = new CommunicationException("dc1:636");
+        connectTimeout.setRootCause(new SocketTimeoutException("connect timed out"));
+        assertTrue(LdapUtils.isTimeout(connectTimeout));
+        CommunicationException closed = new CommunicationException("connection closed");
+        closed.setRootCause(new SocketException("Connection reset"));
+        assertFalse(LdapUtils.isTimeout(closed));
+    }
+
+    @Test
+    public void testMappedGroupsOnly() {
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put("Administrators", "SpacePrivilege READ");
+        groupMap.put("Deployers", "GridPrivilege MANAGE_PU");
+        groupMapper.setGroupMap(groupMap);
+        PooledActiveDirectoryLdapAuthenticationProvider provider = new PooledActiveDirectoryLdapAuthenticationProvider(DOMAIN, new String[] { first.getUrl() });
+        provider.setGroupMapper(groupMapper);
+        provider.afterPropertiesSet();
+
+        Collection<? extends GrantedAuthority> authorities = provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass")).getAuthorities();
+        assertEquals(1, authorities.size());
+        assertEquals("Administrators", authorities.iterator().next().getAuthority());
+    }
+
+    @Test
+    public void testMappedGroupPatterns() {
+        Collection<? extends GrantedAuthority> authorities = authenticateMapped("Admin*");
+        assertEquals(1, authorities.size());
+        ActiveDirectoryGroupAuthority authority = (ActiveDirectoryGroupAuthority) authorities.iterator().next();
+        assertEquals("Administrators", authority.getAuthority());
+        assertTrue(authority.getDn().toLowerCase().startsWith("cn=administrators,ou=groups,"));
+
+        // DN rules can't be expressed as a filter, so all groups are read from memberOf
+        authorities = authenticateMapped("dn:ou=Groups,dc=ldap-xap,dc=gs,dc=com");
+        assertEquals(2, authorities.size());
+        for (GrantedAuthority groupAuthority : authorities) {
+            assertTrue(((ActiveDirectoryGroupAuthority) groupAuthority).getDn().toLowerCase().contains(",ou=groups,"));
+        }
+    }
+
+    private Collection<? extends GrantedAuthority> authenticateMapped(String rule) {
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put(rule, "SpacePrivilege READ");
+        groupMapper.setGroupMap(groupMap);
+        PooledActiveDirectoryLdapAuthenticationProvider provider = new PooledActiveDirectoryLdapAuthenticationProvider(DOMAIN, new String[] { first.getUrl() });
+        provider.setGroupMapper(groupMapper);
+        provider.afterPropertiesSet();
+        return provider.authenticate(new UsernamePasswordAuthenticationToken("testuser", "1234Pass")).getAuthorities();
+    }
+
+    @Test
+    public void testMappedGroupSearchFilter() {
+        assertEquals("(&(objectClass=group)(member={0})(|(cn=Cache_Users)(cn=R&D \\28EU\\29)))",
+                PooledActiveDirectoryLdapAuthenticationProvider.mappedGroupSearchFilter(Arrays.asList("Cache_Users", "R&D (EU)"), false));
+        assertEquals("(&(objectClass=group)(member:1.2.840.113556.1.4.1941:={0})(|(cn=Cache_Users)))",
+                PooledActiveDirectoryLdapAuthenticationProvider.mappedGroupSearchFilter(Arrays.asList("Cache_Users"), true));
+        assertEquals("(&(objectClass=group)(member={0})(|(cn=Cache_Users)(cn=grp-xap-*-ro)(cn=*\\28EU\\29)))",
+                PooledActiveDirectoryLdapAuthenticationProvider.mappedGroupSearchFilter(Arrays.asList("Cache_Users", "grp-xap-*-ro", "*(EU)"), false));
+        assertNull(PooledActiveDirectoryLdapAuthenticationProvider.mappedGroupSearchFilter(Arrays.asList("Cache_Users", "regex:xap-.*"), false));
+        assertNull(PooledActiveDirectoryLdapAuthenticationProvider.mappedGroupSearchFilter(Arrays.asList("grp-xap-?"), false));
+    }
+
+    private static InMemoryActiveDirectory newDomainController() throws Exception {
+        InMemoryActiveDirectory directory = new InMemoryActiveDirectory(DOMAIN);
+        directory.addUser("testuser", "1234Pass", "Administrators", "Domain Users");
+        directory.addUser("deployer", "1234Pass", "Deployers");
+        return directory.start();
+    }
+
+    private static PooledActiveDirectoryLdapAuthenticationProvider newProvider(String... urls) {
+        PooledActiveDirectoryLdapAuthenticationProvider provider = new PooledActiveDirectoryLdapAuthenticationProvider(DOMAIN, urls);
+        provider.setConnectTimeout(1000);
+        provider.afterPropertiesSet();
+        return provider;
+    }
+}
@@ -0,0 +1,108 @@
+package org.openspaces.security.ldap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> call = new Callable<String>() {
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                return "result";
+            }
+        };
+
+        List<Future<String>> results = submit(singleFlight, "key", call);
+        awaitCoalesced(singleFlight, THREADS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("result", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, singleFlight.getExecutionCount());
+        assertEquals(THREADS - 1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void testConcurrentCallsShareFailure() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> call = new Callable<String>() {
+            public String call() throws Exception {
+                release.await();
+                throw new IllegalStateException("failed");
+            }
+        };
+
+        List<Future<String>> results = submit(singleFlight, "key", call);
+        awaitCoalesced(singleFlight, THREADS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("expected failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    @Test
+    public void testSequentialCallsExecuteAgain() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        Callable<String> call = new Callable<String>() {
+            public String call() {
+                return "result";
+            }
+        };
+        singleFlight.execute("key", call);
+        singleFlight.execute("key", call);
+        singleFlight.execute("other", call);
+        assertEquals(3, singleFlight.getExecutionCount());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    private static List<Future<String>> submit(final SingleFlight<String, String> singleFlight, final String key, final Callable<String> call) {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return singleFlight.execute(key, call);
+                }
+            }));
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    private static void awaitCoalesced(SingleFlight<?, ?> singleFlight, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCoalescedCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.openspaces.security.ldap;
+
+import com.gigaspaces.security.AuthenticationException;
+import com.gigaspaces.security.directory.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.DisabledException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StaleWhileRevalidateTest {
+
+    private enum Directory { UP, DOWN, PASSWORD_CHANGED, ACCOUNT_DISABLED }
+
+    private volatile Directory directory = Directory.UP;
+
+    private final AtomicInteger binds = new AtomicInteger();
+
+    private ActiveDirectorySpringSecurityManager manager;
+
+    @Before
+    public void setUp() {
+        Map<String, String> groupMap = new HashMap<String, String>();
+        groupMap.put("Cache_Users", "SpacePrivilege READ");
+        ActiveDirectoryGroupMapper groupMapper = new ActiveDirectoryGroupMapper();
+        groupMapper.setGroupMap(groupMap);
+
+        manager = new ActiveDirectorySpringSecurityManager();
+        manager.setGroupMapper(groupMapper);
+        manager.setAuthenticationCache(new AuthenticationCache(200, 10, 60000));
+        manager.setAuthenticationManager(new AuthenticationManager() {
+            public Authentication authenticate(Authentication authentication) {
+                binds.incrementAndGet();
+                if (directory == Directory.DOWN) {
+                    throw new AuthenticationServiceException("no domain controller available");
+                }
+                if (directory == Directory.PASSWORD_CHANGED) {
+                    throw new BadCredentialsException("bad credentials");
+                }
+                if (directory == Directory.ACCOUNT_DISABLED) {
+                    throw new DisabledException("account disabled");
+                }
+                return new UsernamePasswordAuthenticationToken(authentication.getPrincipal(), authentication.getCredentials(),
+                        AuthorityUtils.createAuthorityList("Cache_Users"));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Test
+    public void testServeStaleWhileDirectoryIsDown() throws InterruptedException {
+        authenticate();
+        Thread.sleep(250);
+        directory = Directory.DOWN;
+
+        // served from the cache while refreshes fail in the background
+        authenticateUntilBinds(3);
+
+        directory = Directory.UP;
+        int bindsBeforeRecovery = binds.get();
+        authenticateUntilBinds(bindsBeforeRecovery + 1);
+        // refreshed, so fresh again
+        Thread.sleep(20);
+        int bindsAfterRecovery = binds.get();
+        authenticate();
+        assertEquals(bindsAfterRecovery, binds.get());
+    }
+
+    @Test
+    public void testStaleEntryRemovedWhenPasswordChanged() throws InterruptedException {
+        assertStaleEntryRemoved(Directory.PASSWORD_CHANGED);
+    }
+
+    @Test
+    public void testStaleEntryRemovedWhenAccountDisabled() throws InterruptedException {
+        assertStaleEntryRemoved(Directory.ACCOUNT_DISABLED);
+    }
+
+    private void assertStaleEntryRemoved(Directory changed) throws InterruptedException {
+        authenticate();
+        Thread.sleep(250);
+        directory = changed;
+
+        authenticate();
+        awaitBinds(2);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (manager.getAuthenticationCache().size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        try {
+            authenticate();
+            fail("expected the stale entry to be removed");
+        } catch (AuthenticationException expected) {
+        }
+    }
+
+    private void authenticate() {
+        assertEquals("user", manager.authenticate(new User("user", "password")).getUserDetails().getUsername());
+    }
+
+    private void authenticateUntilBinds(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (binds.get() < expected && System.currentTimeMillis() < deadline) {
+            authenticate();
+            Thread.sleep(5);
+        }
+        assertTrue(binds.get() >= expected);
+    }
+
+    private void awaitBinds(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (binds.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, binds.get());
+    }
+}
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * 
+ * Copyright (c) 2014 GigaSpaces Technologies, Inc. All rights reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  
+ ******************************************************************************/
+
+package org.openspaces.security.ldap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gigaspaces.security.directory.User;
+
+/**
+ * Load test mode of {@link Main}: authenticates users from a credentials file on several threads
+ * for a given duration and reports throughput, latency percentiles and failures by cause. Instead
+ * of a real domain, an embedded in-memory Active Directory stand-in seeded with synthetic users and
+ * groups can be used, authenticated through the {@link PooledActiveDirectoryLdapAuthenticationProvider}.
+ * <p>
+ * The credentials file has one <code>username:password</code> per line; empty lines and lines
+ * starting with <code>#</code> are ignored.
+ * 
+ * @author Ali Hodroj
+ * @since 9.7.1
+ */
+public class LoadGenerator {
+
+    private static final String USAGE = "usage: load [options]\n"
+            + "  -config <spring config>    security configuration to test (not needed with -embedded)\n"
+            + "  -credentials <file>        username:password per line (default with -embedded: all synthetic users)\n"
+            + "  -threads <n>               concurrent threads (default 8)\n"
+            + "  -duration <seconds>        measured duration (default 30)\n"
+            + "  -warmup <seconds>          unmeasured warm-up duration (default 5)\n"
+            + "  -property <key=value>      security manager property, e.g. authentication-cache-ttl=60000\n"
+            + "  -embedded <users>          start an in-memory Active Directory with the given number of users\n"
+            + "  -groups <n>                number of synthetic groups (default 20)\n"
+            + "  -bind-delay <millis>       latency added to every bind of the embedded directory (default 0)\n"
+            + "  -invalid-percent <n>       percentage of synthetic credentials with a wrong password (default 0)";
+
+    private static final String DOMAIN = "example.com";
+
+    private static final String[] AUTHORITIES = { "SpacePrivilege READ", "SpacePrivilege READ,SpacePrivilege WRITE",
+            "MonitorPrivilege MONITOR_PU", "GridPrivilege MANAGE_PU,MonitorPrivilege MONITOR_JVM" };
+
+    private String configLocation;
+    private String credentialsFile;
+    private int threads = 8;
+    private long durationSeconds = 30;
+    private long warmupSeconds = 5;
+    private final Properties properties = new Properties();
+    private int embeddedUsers;
+    private int embeddedGroups = 20;
+    private long bindDelay;
+    private int invalidPercent;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong successes = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<String, AtomicLong>();
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator loadGenerator = new LoadGenerator();
+        try {
+            loadGenerator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            return;
+        }
+        loadGenerator.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value of " + option);
+            }
+            String value = args[++i];
+            if (option.equals("-config")) {
+                configLocation = value;
+            } else if (option.equals("-credentials")) {
+                credentialsFile = value;
+            } else if (option.equals("-threads")) {
+                threads = intValue(option, value);
+            } else if (option.equals("-duration")) {
+                durationSeconds = intValue(option, value);
+            } else if (option.equals("-warmup")) {
+                warmupSeconds = intValue(option, value);
+            } else if (option.equals("-property")) {
+                int separator = value.indexOf('=');
+                if (separator < 1) {
+                    throw new IllegalArgumentException("illegal property: " + value);
+                }
+                properties.setProperty(value.substring(0, separator).trim(), value.substring(separator + 1).trim());
+            } else if (option.equals("-embedded")) {
+                embeddedUsers = intValue(option, value);
+            } else if (option.equals("-groups")) {
+                embeddedGroups = intValue(option, value);
+            } else if (option.equals("-bind-delay")) {
+                bindDelay = intValue(option, value);
+            } else if (option.equals("-invalid-percent")) {
+                invalidPercent = intValue(option, value);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + option);
+            }
+        }
+        if (configLocation == null && embeddedUsers == 0) {
+            throw new IllegalArgumentException("either -config or -embedded is required");
+        }
+        if (credentialsFile == null && embeddedUsers == 0) {
+            throw new IllegalArgumentException("-credentials is required");
+        }
+        if (threads < 1 || durationSeconds < 1) {
+            throw new IllegalArgumentException("-threads and -duration must be positive");
+        }
+    }
+
+    private static int intValue(String option, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("illegal value of " + option + ": " + value);
+        }
+    }
+
+    private void run() throws Exception {
+        InMemoryActiveDirectory directory = null;
+        File embeddedConfig = null;
+        List<User> credentials;
+        try {
+            if (embeddedUsers > 0) {
+                directory = new InMemoryActiveDirectory(DOMAIN).start();
+                directory.setBindDelay(bindDelay);
+                credentials = seed(directory);
+                embeddedConfig = writeEmbeddedConfig(directory.getUrl());
+                configLocation = "file:" + embeddedConfig.getAbsolutePath();
+                System.out.println("embedded directory at " + directory.getUrl() + " with " + embeddedUsers + " users in "
+                        + embeddedGroups + " groups");
+            } else {
+                credentials = new ArrayList<User>();
+            }
+            if (credentialsFile != null) {
+                credentials = readCredentials(credentialsFile);
+            }
+            if (credentials.isEmpty()) {
+                System.out.println("no credentials to authenticate");
+                return;
+            }
+
+            properties.setProperty(ActiveDirectorySpringSecurityManager.SPRING_SECURITY_CONFIG_LOCATION, configLocation);
+            ActiveDirectorySpringSecurityManager securityManager = new ActiveDirectorySpringSecurityManager();
+            securityManager.init(properties);
+            try {
+                if (warmupSeconds > 0) {
+                    System.out.println("warming up for " + warmupSeconds + "s");
+                    generate(securityManager, credentials, warmupSeconds, false);
+                }
+                System.out.println("running " + threads + " threads for " + durationSeconds + "s");
+                long elapsedNanos = generate(securityManager, credentials, durationSeconds, true);
+                report(securityManager, elapsedNanos);
+            } finally {
+                securityManager.close();
+            }
+        } finally {
+            if (directory != null) {
+                directory.shutdown();
+            }
+            if (embeddedConfig != null) {
+                embeddedConfig.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the elapsed time in nanoseconds
+     */
+    private long generate(final ActiveDirectorySpringSecurityManager securityManager, final List<User> credentials,
+            long seconds, final boolean measure) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(threads);
+        long startTime = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * (credentials.size() / threads + 1);
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = offset; System.nanoTime() < deadline; i++) {
+                            authenticate(securityManager, credentials.get(i % credentials.size()), measure);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return System.nanoTime() - startTime;
+    }
+
+    private void authenticate(ActiveDirectorySpringSecurityManager securityManager, User user, boolean measure) {
+        long startTime = System.nanoTime();
+        try {
+            securityManager.authenticate(user);
+            if (measure) {
+                latencies.record(System.nanoTime() - startTime);
+                successes.incrementAndGet();
+            }
+        } catch (Exception e) {
+            if (measure) {
+                latencies.record(System.nanoTime() - startTime);
+                countFailure(e.getCause() != null ? e.getCause() : e);
+            }
+        }
+    }
+
+    private void countFailure(Throwable cause) {
+        String name = cause.getClass().getSimpleName();
+        AtomicLong count = failures.get(name);
+        if (count == null) {
+            AtomicLong existing = failures.putIfAbsent(name, count = new AtomicLong());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private void report(ActiveDirectorySpringSecurityManager securityManager, long elapsedNanos) {
+        long total = latencies.getCount();
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.println(String.format("authentications: %d, succeeded: %d, failed: %d", total, successes.get(), total - successes.get()));
+        System.out.println(String.format("throughput: %.1f/s", total / seconds));
+        System.out.println(String.format("latency (ms): mean %.3f, p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+                latencies.getMeanMicros() / 1000, latencies.getPercentileMicros(50) / 1000.0,
+                latencies.getPercentileMicros(99) / 1000.0, latencies.getPercentileMicros(99.9) / 1000.0,
+                latencies.getMaxMicros() / 1000.0));
+        if (!failures.isEmpty()) {
+            System.out.println("failures:");
+            for (Map.Entry<String, AtomicLong> failure : new TreeMap<String, AtomicLong>(failures).entrySet()) {
+                System.out.println("  " + failure.getKey() + ": " + failure.getValue().get());
+            }
+        }
+        AuthenticationMetrics metrics = securityManager.getMetrics();
+        System.out.println(String.format("cache hits: %d, misses: %d, coalesced: %d (including warm-up)",
+                metrics.getCacheHitCount(), metrics.getCacheMissCount(), metrics.getCoalescedCount()));
+        if (metrics.getBindCount() > 0) {
+            System.out.println(String.format("bind latency (ms, including warm-up): p50 %.3f, p99 %.3f, max %.3f",
+                    metrics.getBindTime50thPercentile(), metrics.getBindTime99thPercentile(), metrics.getBindTimeMax()));
+        }
+    }
+
+    /**
+     * Adds the synthetic users, each a member of up to three groups, to the directory.
+     * 
+     * @return the credentials of the users
+     */
+    private List<User> seed(InMemoryActiveDirectory directory) throws Exception {
+        List<User> credentials = new ArrayList<User>(embeddedUsers);
+        for (int i = 0; i < embeddedUsers; i++) {
+            String username = "user" + i;
+            String password = "Password" + i;
+            Set<String> groups = new LinkedHashSet<String>(Arrays.asList(group(i), group(i / embeddedGroups + 1), group(i * 7 + 3)));
+            directory.addUser(username, password, groups.toArray(new String[groups.size()]));
+            boolean invalid = invalidPercent > 0 && i % 100 < invalidPercent;
+            credentials.add(new User(username, invalid ? password + "-invalid" : password));
+        }
+        return credentials;
+    }
+
+    private String group(int index) {
+        return "Group_" + (index % embeddedGroups);
+    }
+
+    private File writeEmbeddedConfig(String url) throws IOException {
+        File file = File.createTempFile("ldap-security-config", ".xml");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<!DOCTYPE beans PUBLIC \"-//SPRING//DTD BEAN 2.0//EN\" \"http://www.springframework.org/dtd/spring-beans-2.0.dtd\">\n"
+                    + "<beans>\n"
+                    + "  <bean id=\"authenticationManager\" class=\"org.springframework.security.authentication.ProviderManager\">\n"
+                    + "    <property name=\"providers\"><list><ref bean=\"ldapAuthenticationProvider\"/></list></property>\n"
+                    + "  </bean>\n"
+                    + "  <bean id=\"ldapAuthenticationProvider\" class=\"" + PooledActiveDirectoryLdapAuthenticationProvider.class.getName() + "\">\n"
+                    + "    <constructor-arg value=\"" + DOMAIN + "\"/>\n"
+                    + "    <constructor-arg value=\"" + url + "\"/>\n"
+                    + "    <property name=\"maxIdleConnections\" value=\"" + threads + "\"/>\n"
+                    + "    <property name=\"groupMapper\" ref=\"ldapGroupMapper\"/>\n"
+                    + "  </bean>\n"
+                    + "  <bean id=\"ldapGroupMapper\" class=\"" + ActiveDirectoryGroupMapper.class.getName() + "\">\n"
+                    + "    <property name=\"groupMap\"><map>\n");
+            for (int i = 0; i < embeddedGroups; i++) {
+                writer.write("      <entry key=\"" + group(i) + "\" value=\"" + AUTHORITIES[i % AUTHORITIES.length] + "\"/>\n");
+            }
+            writer.write("    </map></property>\n"
+                    + "  </bean>\n"
+                    + "</beans>\n");
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static List<User> readCredentials(String credentialsFile) throws IOException {
+        List<User> credentials = new ArrayList<User>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(credentialsFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf(':');
+                if (separator < 1) {
+                    throw new IOException("illegal line in " + credentialsFile + ", expected username:password: " + line);
+                }
+                credentials.add(new User(line.substring(0, separator), line.substring(separator + 1)));
+            }
+        } finally {
+            reader.close();
+        }
+        return credentials;
+    }
+}
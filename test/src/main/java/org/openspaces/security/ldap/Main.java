@@ -26,17 +26,24 @@ import com.gigaspaces.security.directory.UserDetails;
 
 /**
  * A simple test utility to verify GigaSpaces XAP security settings against 
- * a configured provider. 
+ * a configured provider. Run with <code>load</code> as the first argument to
+ * generate concurrent load instead (see {@link LoadGenerator}).
  * 
  * @author Ali Hodroj
  * @since 9.7.1
  */
 
 public class Main {
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		
+		if(args.length > 0 && args[0].equals("load")) {
+			LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		
 		if(args.length < 3) {
 			System.out.println("usage: <spring config> <username> <password>");
+			System.out.println("       load [options] (run without options for help)");
 			return;
 		}
 		